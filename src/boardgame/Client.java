@@ -123,8 +123,7 @@ public class Client implements Runnable {
                 throw new Exception();
             }
 
-            myMove.setPlayerID(playerID);
-            myMove.setFromBoard(false);
+            myMove = outgoingMove(myMove, playerID);
         } catch( Exception e ) {
             System.err.println( "ATTENTION: Exception in " +
                 player.getClass().getName() + ".chooseMove(). Playing random move." );
@@ -149,6 +148,15 @@ public class Client implements Runnable {
         }
     }
 
+    /** The move to send for ``m``, as chosen by the player ``playerID``.
+     * This is ``m`` itself with its player set, or an equivalent move
+     * if ``m`` is one that must not be changed. */
+    public static Move outgoingMove(Move m, int playerID) {
+        Move out = m.forPlayer(playerID);
+        out.setFromBoard(false);
+        return out;
+    }
+
     /** Connect to a server. This blocks until the game starts. */
     protected boolean connect() {
         System.out.println( "Connecting to " + serverName + ":" + serverPort + "... " );
@@ -24,6 +24,13 @@ abstract public class Move implements Cloneable {
     abstract public void setPlayerID(int player_id);
     /** Set whether the move comes from the board or a client */
     abstract public void setFromBoard(boolean from_board);
+    /** This move, played by the given player. By default this sets the
+     * player on this move and returns it; moves that must not be changed
+     * return an equivalent move for that player instead. */
+    public Move forPlayer(int player_id) {
+        setPlayerID(player_id);
+        return this;
+    }
     /** The player IDs to which this move should be
      * sent by the server. This method may return null to indicate
      * moves are to be sent to all players. The default
@@ -482,8 +482,7 @@ public class Server implements Runnable {
 
     /** Callback for timeout timer. Play a random move. */
     private synchronized void timeOut(int player_id) {
-        Move random_move = board.getRandomMove();
-        random_move.setPlayerID(player_id);
+        Move random_move = board.getRandomMove().forPlayer(player_id);
         random_move.setFromBoard(false);
 
         players[player_id].setMove(random_move.toTransportable());
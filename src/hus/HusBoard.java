@@ -40,7 +40,7 @@ public class HusBoard extends Board{
 
     /** Return the number of seeds in a given pit. */
     int getNumSeeds(int player_id, int pit){
-        return board_state.getPits()[player_id][pit];
+        return board_state.getNumSeeds(player_id, pit);
     }
 
     /* Methods called by the Server. */
@@ -94,7 +94,7 @@ public class HusBoard extends Board{
     public Move parseMove(String str)
                throws NumberFormatException, IllegalArgumentException {
 
-        return new HusMove(str);
+        return HusMove.parse(str);
     }
 
     @Override
@@ -125,7 +125,7 @@ implements MouseListener, MouseMotionListener, ComponentListener {
             player_id = board_pit[0];
             pit = board_pit[1];
 
-            HusMove move = new HusMove(pit, player_id);
+            HusMove move = HusMove.getMove(pit, player_id);
             if(board.isLegal(move)){
                 list.moveEntered(move);
                 cancelMoveRequest();
@@ -1,7 +1,8 @@
 package hus;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 
 import boardgame.Board;
@@ -28,7 +29,55 @@ public class HusBoardState extends BoardState{
     // Maximum number of iterations to implement a move.
     public final static int MAX_TURN_LENGTH = 200;
 
-    Random rand = new Random();
+    // Number of pits owned by each player.
+    public final static int PITS_PER_PLAYER = 2 * BOARD_WIDTH;
+
+    // Seeds on the whole board: two in each of 3/2 * BOARD_WIDTH pits per
+    // player. Moves never change it, which keeps every pit within a byte.
+    private static final int TOTAL_SEEDS = 6 * BOARD_WIDTH;
+
+    // Shared by all states so that copying a state does not allocate one.
+    private static final Random rand = new Random();
+
+    /* Precomputed pit geometry, so that the rules need no modulo or
+     * index arithmetic. next_pit[p] is the pit after p in CCW order.
+     * For a pit p in a player's inner row, opposite_back[p] and
+     * opposite_front[p] are the opponent's pits that p captures from;
+     * both are -1 for outer row pits, which never capture. */
+    private static final int[] next_pit = new int[PITS_PER_PLAYER];
+    private static final int[] opposite_back = new int[PITS_PER_PLAYER];
+    private static final int[] opposite_front = new int[PITS_PER_PLAYER];
+
+    static {
+        for(int pit = 0; pit < PITS_PER_PLAYER; pit++){
+            next_pit[pit] = (pit + 1) % PITS_PER_PLAYER;
+
+            if(pit >= BOARD_WIDTH){
+                opposite_back[pit] = pit - BOARD_WIDTH;
+                opposite_front[pit] = 2 * BOARD_WIDTH - 1 - (pit - BOARD_WIDTH);
+            }else{
+                opposite_back[pit] = -1;
+                opposite_front[pit] = -1;
+            }
+        }
+    }
+
+    /* Zobrist keys. zobrist_pits[i << 7 | n] is the key for pits[i] holding
+     * n seeds (zero for n == 0), and zobrist_side is mixed in when it is
+     * Player 1's turn. The seed is fixed so that keys are stable between
+     * runs and can be stored. */
+    private static final long[] zobrist_pits = new long[2 * PITS_PER_PLAYER << 7];
+    private static final long zobrist_side;
+
+    static {
+        Random r = new Random(0x4875735A6F62726CL);
+
+        for(int i = 0; i < zobrist_pits.length; i++){
+            zobrist_pits[i] = (i & 127) == 0 ? 0 : r.nextLong();
+        }
+
+        zobrist_side = r.nextLong();
+    }
 
     public enum Direction{
         CCW, CW
@@ -46,16 +95,18 @@ public class HusBoardState extends BoardState{
     /** Special constant to indicate that the game was cancelled because of P1.*/
     public static final int CANCELLED1 = Board.CANCELLED1;
 
-    /** Number of seeds in each of the pits.
-     * board[0] : Player 0's pits.
-     * board[1] : Player 1's pits.
-     * In each sub array, the pits are enumerated in CCW order, starting
+    /** Number of seeds in each of the pits, packed into a single flat array
+     * so that a state can be copied with one arraycopy. Player 0's pits occupy
+     * indices [0, PITS_PER_PLAYER) and Player 1's pits occupy
+     * [PITS_PER_PLAYER, 2 * PITS_PER_PLAYER); use ``index`` to convert.
+     * For each player, the pits are enumerated in CCW order, starting
      * from the left most pit (from that player's perspective) closest to
-     * that player. So board[0][0] is the left most pit closest to Player 0,
-     * board[0][2 * BOARD_WIDTH - 1] is the left most pit second closest to Player 0
-     * (all from Player 0's perspective). Similarly, board[1][0] is the left
-     * most pit (from Player 1's perspective) that is closest to Player 1, etc.*/
-    private int[][] board = new int[2][2*BOARD_WIDTH];
+     * that player. So pit 0 is the left most pit closest to Player 0,
+     * pit 2 * BOARD_WIDTH - 1 is the left most pit second closest to Player 0
+     * (all from Player 0's perspective). Similarly, pit 0 of Player 1 is the left
+     * most pit (from Player 1's perspective) that is closest to Player 1, etc.
+     * The total number of seeds in the game is 96, so a byte per pit is enough. */
+    private final byte[] pits = new byte[2 * PITS_PER_PLAYER];
 
     private int turn_number;
     private int winner;
@@ -66,37 +117,82 @@ public class HusBoardState extends BoardState{
     // ID of the player that plays first.
     private int first_player;
 
-    private HusBoardState(int[][] board, int turn_number, int winner, int turn_player, int first_player){
-        super();
+    // Zobrist key of the pits and the side to move, kept up to date by
+    // every write to ``pits`` and every change of turn.
+    private long hash_key;
+
+    /* Aggregates over ``pits``, also kept up to date by every write, so
+     * that evaluation functions can read them in constant time.
+     * Bit i of legal_bits is set if pits[i] > 1, and bit i of empty_bits
+     * is set if pits[i] == 0. row_seeds holds the number of seeds in each
+     * row in 16-bit fields: Player 0's back (outer) row, Player 0's front
+     * (inner) row, then the same for Player 1, so the field for pits[i]
+     * starts at bit 16 * (i / BOARD_WIDTH). */
+    private long legal_bits;
+    private long empty_bits;
+    private long row_seeds;
+
+    // Undo record that pit writes are currently being logged to, if any.
+    private Undo recording;
+
+    // Scratch record for ``wouldCancel``; allocated on first use.
+    private Undo probe;
+
+    // Whether ``make`` and ``unmake`` should check that unmaking really
+    // restores the state. Off by default since it costs a copy per make.
+    private static boolean validate_undo = Boolean.getBoolean("hus.validate_undo");
+
+    /** Everything needed to take back a move applied with ``make``.
+     * Only the pits that the move actually touched (through sowing,
+     * relays and captures) are saved, along with the turn bookkeeping.
+     * Searches should allocate one Undo per ply up front and reuse them,
+     * so that walking the game tree does not allocate at all. */
+    public static final class Undo {
+        // Bit i is set if pits[i] was modified by the move.
+        long touched;
+        final byte[] saved = new byte[2 * PITS_PER_PLAYER];
+
+        int turn_number;
+        int winner;
+        int turn_player;
+        long hash_key;
+        long legal_bits;
+        long empty_bits;
+        long row_seeds;
+
+        // Copy of the state before the move; only kept in validation mode.
+        HusBoardState before;
+    }
 
-        this.board[0] = Arrays.copyOf(board[0], 2 * BOARD_WIDTH);
-        this.board[1] = Arrays.copyOf(board[1], 2 * BOARD_WIDTH);
+    private HusBoardState(HusBoardState other){
+        super();
 
-        this.turn_number = turn_number;
-        this.winner = winner;
-        this.turn_player = turn_player;
-        this.first_player = first_player;
+        copyFrom(other);
     }
 
     public HusBoardState() {
-        this.board[0] = new int[2 * BOARD_WIDTH];
-        this.board[1] = new int[2 * BOARD_WIDTH];
-
         placeInitialSeeds();
 
         turn_number = 0;
         winner = Board.NOBODY;
         turn_player = 0;
         first_player = 0;
+
+        resetDerived();
     }
 
     private void placeInitialSeeds(){
         for(int i = 0; i < (3.0/2) * BOARD_WIDTH; i++){
-            this.board[0][i] = 2;
-            this.board[1][i] = 2;
+            pits[index(0, i)] = 2;
+            pits[index(1, i)] = 2;
         }
     }
 
+    /** Index into ``pits`` of the given player's pit. */
+    static int index(int player_id, int pit){
+        return player_id * PITS_PER_PLAYER + pit;
+    }
+
     /* Methods for use by agent code. */
 
     /** Whether the board has been initialized. */
@@ -136,35 +232,166 @@ public class HusBoardState extends BoardState{
 
     /** Return a random legal move. */
     public Move getRandomMove(){
-        ArrayList<HusMove> moves = getLegalMoves();
-        return moves.get(rand.nextInt(moves.size()));
+        int legal = getLegalPitMask();
+
+        for(int n = rand.nextInt(Integer.bitCount(legal)); n > 0; n--){
+            legal &= legal - 1;
+        }
+
+        return HusMove.getMove(Integer.numberOfTrailingZeros(legal), turn_player);
     }
 
     /** Array of integers representing the current state of the board.
      * First sub array gives player 0's pit information, second
-     * sub array gives player 1's pit information. */
+     * sub array gives player 1's pit information. The array is a fresh
+     * copy, so agents in a hurry should prefer ``getNumSeeds``. */
     public int[][] getPits(){
+        int[][] board = new int[2][PITS_PER_PLAYER];
+
+        for(int i = 0; i < PITS_PER_PLAYER; i++){
+            board[0][i] = pits[index(0, i)];
+            board[1][i] = pits[index(1, i)];
+        }
+
         return board;
     }
 
+    /** Return the number of seeds in the given player's pit. */
+    public int getNumSeeds(int player_id, int pit){
+        return pits[index(player_id, pit)];
+    }
+
+    /** Turn validation of ``make``/``unmake`` on or off. When on, every
+     * ``unmake`` checks that the restored state is identical to a copy
+     * taken before the matching ``make``, and throws an
+     * IllegalStateException if it is not. Can also be enabled by running
+     * with -Dhus.validate_undo=true. */
+    public static void setUndoValidation(boolean validate){
+        validate_undo = validate;
+    }
+
+    /** 64-bit Zobrist key of the seed counts in every pit and the player
+     * to move. Equal states always have equal keys; the turn number and
+     * winner are not included, so transpositions reached after a different
+     * number of turns share a key. Maintained incrementally, so this is free. */
+    public long getHashKey(){
+        return hash_key;
+    }
+
+    /** Return the total number of seeds on the given player's side. */
+    public int getSeedCount(int player_id){
+        return getFrontRowSeeds(player_id) + getBackRowSeeds(player_id);
+    }
+
+    /** Return the number of seeds in the given player's front row, the
+     * inner row facing the opponent (pits BOARD_WIDTH to 2 * BOARD_WIDTH - 1).
+     * Only seeds in this row can be captured. */
+    public int getFrontRowSeeds(int player_id){
+        return (int) (row_seeds >>> (32 * player_id + 16)) & 0xFFFF;
+    }
+
+    /** Return the number of seeds in the given player's back row, the
+     * outer row (pits 0 to BOARD_WIDTH - 1). */
+    public int getBackRowSeeds(int player_id){
+        return (int) (row_seeds >>> (32 * player_id)) & 0xFFFF;
+    }
+
+    /** Return the number of the given player's pits i < BOARD_WIDTH for
+     * which both pit i and the pit aligned with it in the front row
+     * (2 * BOARD_WIDTH - 1 - i) are empty. */
+    public int getEmptyAlignedPairs(int player_id){
+        int empty = (int) (empty_bits >>> (player_id * PITS_PER_PLAYER));
+        return Integer.bitCount(empty & Integer.reverse(empty) & ((1 << BOARD_WIDTH) - 1));
+    }
+
+    /** Recompute the Zobrist key and all the aggregates from ``pits``. */
+    private void resetDerived(){
+        hash_key = computeHashKey();
+
+        legal_bits = 0;
+        empty_bits = 0;
+        row_seeds = 0;
+
+        for(int i = 0; i < pits.length; i++){
+            updateDerived(i, pits[i]);
+            row_seeds += (long) pits[i] << rowShift(i);
+        }
+    }
+
+    /** Compute the Zobrist key from scratch. */
+    private long computeHashKey(){
+        long key = turn_player == 1 ? zobrist_side : 0;
+
+        for(int i = 0; i < pits.length; i++){
+            key ^= zobrist_pits[i << 7 | pits[i]];
+        }
+
+        return key;
+    }
+
+    /** Overwrite this state with the contents of ``other`` without
+     * allocating anything. Useful for agents that keep a pool of
+     * scratch states for searching. */
+    public void copyFrom(HusBoardState other){
+        System.arraycopy(other.pits, 0, pits, 0, pits.length);
+
+        turn_number = other.turn_number;
+        winner = other.winner;
+        turn_player = other.turn_player;
+        first_player = other.first_player;
+        hash_key = other.hash_key;
+        legal_bits = other.legal_bits;
+        empty_bits = other.empty_bits;
+        row_seeds = other.row_seeds;
+    }
+
     /**
      * Get all legal move for the current board state.
      *
      * Returned moves are assumed to be moves for the player whose turn
      * it currently is. */
     public ArrayList<HusMove> getLegalMoves(){
-        ArrayList<HusMove> legal_moves = new ArrayList<HusMove>();
+        int legal = getLegalPitMask();
+        ArrayList<HusMove> legal_moves = new ArrayList<HusMove>(Integer.bitCount(legal));
 
-        for(int i = 0; i < 2 * BOARD_WIDTH; i++){
-            HusMove move = new HusMove(i, turn_player);
-            if(isLegal(move)){
-                legal_moves.add(move);
-            }
+        while(legal != 0){
+            legal_moves.add(HusMove.getMove(Integer.numberOfTrailingZeros(legal), turn_player));
+            legal &= legal - 1;
         }
 
         return legal_moves;
     }
 
+    /**
+     * Get all legal moves for the current board state as a bitmask:
+     * bit i is set if the player whose turn it is may play pit i.
+     * Unlike getLegalMoves this does not allocate, so it is the
+     * preferred way for agents to enumerate moves, e.g.
+     *
+     *     for(int m = s.getLegalPitMask(); m != 0; m &= m - 1){
+     *         int pit = Integer.numberOfTrailingZeros(m);
+     *         ...
+     *     } */
+    public int getLegalPitMask(){
+        return getLegalPitMask(turn_player);
+    }
+
+    /** Bitmask of the pits the given player could play if it were
+     * their turn. */
+    public int getLegalPitMask(int player_id){
+        return (int) (legal_bits >>> (player_id * PITS_PER_PLAYER));
+    }
+
+    /** Number of legal moves for the player whose turn it is. */
+    public int getNumLegalMoves(){
+        return Integer.bitCount(getLegalPitMask());
+    }
+
+    /** Number of moves the given player could play if it were their turn. */
+    public int getNumLegalMoves(int player_id){
+        return Integer.bitCount(getLegalPitMask(player_id));
+    }
+
     /**
      * Return whether the supplied move is legal given the current
      * state of the board. */
@@ -172,7 +399,20 @@ public class HusBoardState extends BoardState{
         return (
             m.move_type == MoveType.PIT
             && m.player_id == turn_player
-            && board[turn_player][m.getPit()] > 1);
+            && m.getPit() >= 0 && m.getPit() < PITS_PER_PLAYER
+            && pits[index(turn_player, m.getPit())] > 1);
+    }
+
+    /**
+     * Return whether the move with the given code (see HusMove.toCode)
+     * is legal given the current state of the board. */
+    public boolean isLegal(int code){
+        int pit = HusMove.codePit(code);
+
+        return (
+            pit >= 0
+            && HusMove.codePlayer(code) == turn_player
+            && pits[index(turn_player, pit)] > 1);
     }
 
     /**
@@ -193,7 +433,175 @@ public class HusBoardState extends BoardState{
                 "Move: " + hus_move.toPrettyString());
         }
 
-        int start_pit = hus_move.getPit();
+        return play(hus_move.getPit());
+    }
+
+    /** Same as ``move``, but takes the move's integer code (see
+     * HusMove.toCode) so that agents can keep moves in int arrays. */
+    public boolean move(int code) throws IllegalArgumentException {
+        if(!isLegal(code)){
+            throw new IllegalArgumentException(
+                "Invalid move for current context. " +
+                "Move code: " + code);
+        }
+
+        return play(HusMove.codePit(code));
+    }
+
+    /**
+     * Play the turn player's pit in place, logging every change to
+     * ``undo`` so that it can later be taken back with ``unmake``. Returns
+     * the same value as ``move``; a cancelled move must be unmade too.
+     * The undo record is overwritten, so use one per ply when searching. */
+    public boolean make(int pit, Undo undo) throws IllegalArgumentException {
+        if(pit < 0 || pit >= PITS_PER_PLAYER || pits[index(turn_player, pit)] <= 1){
+            throw new IllegalArgumentException(
+                "Invalid move for current context. " +
+                "Player " + turn_player + " cannot play pit " + pit);
+        }
+
+        beginUndo(undo);
+
+        recording = undo;
+        boolean result = play(pit);
+        recording = null;
+
+        return result;
+    }
+
+    /**
+     * Pass the turn to the other player without moving, logging the change
+     * to ``undo`` so that it can be taken back with ``unmake``. This is not
+     * a legal Hus move: searches use it to test whether a position is so
+     * good that it stays good even if its player does nothing. */
+    public void makeNullMove(Undo undo){
+        beginUndo(undo);
+
+        if(turn_player == 1){
+            turn_number++;
+        }
+
+        turn_player = (turn_player + 1) % 2;
+        hash_key ^= zobrist_side;
+        updateWinner(turn_player);
+    }
+
+    /** Start a new undo record: save everything but the pits, which are
+     * saved as they are written. */
+    private void beginUndo(Undo undo){
+        undo.touched = 0;
+        undo.turn_number = turn_number;
+        undo.winner = winner;
+        undo.turn_player = turn_player;
+        undo.hash_key = hash_key;
+        undo.legal_bits = legal_bits;
+        undo.empty_bits = empty_bits;
+        undo.row_seeds = row_seeds;
+
+        if(!validate_undo){
+            undo.before = null;
+        }else if(undo.before == null){
+            undo.before = new HusBoardState(this);
+        }else{
+            undo.before.copyFrom(this);
+        }
+    }
+
+    /** Take back the move that filled in ``undo``. Moves must be unmade
+     * in the reverse order in which they were made. */
+    public void unmake(Undo undo){
+        long touched = undo.touched;
+
+        while(touched != 0){
+            int i = Long.numberOfTrailingZeros(touched);
+            pits[i] = undo.saved[i];
+            touched &= touched - 1;
+        }
+
+        turn_number = undo.turn_number;
+        winner = undo.winner;
+        turn_player = undo.turn_player;
+        hash_key = undo.hash_key;
+        legal_bits = undo.legal_bits;
+        empty_bits = undo.empty_bits;
+        row_seeds = undo.row_seeds;
+
+        if(undo.before != null && !(sameAs(undo.before) && derivedSameAs(undo.before))){
+            throw new IllegalStateException(
+                "unmake did not restore the state.\nExpected: " + undo.before
+                + "\nGot: " + this);
+        }
+    }
+
+    /** Whether playing the given pit would be an infinite move, i.e.
+     * whether ``move`` would return false and cancel the game. The state
+     * is left unchanged. An infinite move is only found out once it
+     * reaches MAX_TURN_LENGTH sowings, so that is what this costs for one;
+     * otherwise it costs a make and an unmake. */
+    public boolean wouldCancel(int pit) throws IllegalArgumentException {
+        if(probe == null){
+            probe = new Undo();
+        }
+
+        boolean cancelled = !make(pit, probe);
+        unmake(probe);
+
+        return cancelled;
+    }
+
+    /**
+     * Number of seeds the turn player would capture where the first
+     * sowing of ``pit`` ends, or 0 if it does not capture there. The end
+     * pit and its count follow from the seeds in ``pit`` alone, so this is
+     * O(1) and the state is not touched. Captures made later in the relay
+     * are not seen, so a result of 0 does not mean the move is quiet. */
+    public int getCaptureGain(int pit){
+        int start = index(turn_player, pit);
+        int n_seeds = pits[start];
+
+        if(turn_number <= 0 || n_seeds <= 1){
+            return 0;
+        }
+
+        int end_pit = (pit + n_seeds) % PITS_PER_PLAYER;
+        int laps = n_seeds / PITS_PER_PLAYER;
+
+        // The start pit is emptied, then gets a seed on every full lap.
+        // Any other pit also gets the last seed.
+        int end_seeds = end_pit == pit
+            ? laps
+            : pits[index(turn_player, end_pit)] + laps + 1;
+
+        if(end_seeds <= 1 || opposite_front[end_pit] < 0){
+            return 0;
+        }
+
+        int opponent = 1 - turn_player;
+        int front = pits[index(opponent, opposite_front[end_pit])];
+
+        return front > 0 ? front + pits[index(opponent, opposite_back[end_pit])] : 0;
+    }
+
+    /** Whether every pit and all the turn bookkeeping match ``other``. */
+    private boolean sameAs(HusBoardState other){
+        return Arrays.equals(pits, other.pits)
+            && turn_number == other.turn_number
+            && winner == other.winner
+            && turn_player == other.turn_player
+            && first_player == other.first_player;
+    }
+
+    /** Whether the key and aggregates match ``other``. Only differs from
+     * ``sameAs`` if incremental maintenance has a bug. */
+    private boolean derivedSameAs(HusBoardState other){
+        return hash_key == other.hash_key
+            && legal_bits == other.legal_bits
+            && empty_bits == other.empty_bits
+            && row_seeds == other.row_seeds;
+    }
+
+    /** Play the turn player's pit, which is assumed to be legal. */
+    private boolean play(int start_pit){
         int end_pit = runMove(start_pit);
 
         // Signals that a too-large move occurred.
@@ -206,6 +614,7 @@ public class HusBoardState extends BoardState{
         }
 
         turn_player = (turn_player + 1) % 2;
+        hash_key ^= zobrist_side;
         updateWinner(turn_player);
 
         return true;
@@ -213,14 +622,76 @@ public class HusBoardState extends BoardState{
 
     /* Helper methods for implementing game logic. */
 
+    /** Save the contents of pits[i] to the undo record being filled in,
+     * if any. Must be called before every write to ``pits`` during a move. */
+    private void save(int i){
+        Undo undo = recording;
+
+        if(undo != null && (undo.touched & (1L << i)) == 0){
+            undo.touched |= 1L << i;
+            undo.saved[i] = pits[i];
+        }
+    }
+
+    /** Add a single seed to pits[i]. */
+    private void addSeed(int i){
+        addSeeds(i, 1);
+    }
+
+    /** Add ``n`` seeds to pits[i]. */
+    private void addSeeds(int i, int n){
+        save(i);
+        int seeds = pits[i];
+        hash_key ^= zobrist_pits[i << 7 | seeds] ^ zobrist_pits[i << 7 | seeds + n];
+        row_seeds += (long) n << rowShift(i);
+        pits[i] = (byte) (seeds + n);
+        updateDerived(i, seeds + n);
+    }
+
+    /** Empty pits[i], returning the number of seeds it held. */
+    private int takeSeeds(int i){
+        save(i);
+        int seeds = pits[i];
+        hash_key ^= zobrist_pits[i << 7 | seeds];
+        row_seeds -= (long) seeds << rowShift(i);
+        pits[i] = 0;
+        updateDerived(i, 0);
+        return seeds;
+    }
+
+    /** Offset of the row_seeds field that pits[i] counts towards. */
+    private static int rowShift(int i){
+        return (i / BOARD_WIDTH) << 4;
+    }
+
+    /** Update legal_bits and empty_bits for pits[i] now holding ``seeds``. */
+    private void updateDerived(int i, int seeds){
+        long bit = 1L << i;
+        legal_bits = seeds > 1 ? legal_bits | bit : legal_bits & ~bit;
+        empty_bits = seeds == 0 ? empty_bits | bit : empty_bits & ~bit;
+    }
+
     /**
-     * Given a starting pit, a number of seeds, and a direction,
-     * adds one seed to each of the next `num_seeds` pits
-     * in the given direction from the supplied pit. */
-    private int sowSeeds(int pit, int num_seeds, Direction d){
+     * Given a starting pit and a number of seeds, adds one seed to each
+     * of the next `num_seeds` pits in CCW order from the supplied pit,
+     * and returns the pit that received the last seed. Every full lap of
+     * the row adds one seed to every pit, so whole laps are added in one
+     * pass and only the remainder is sown pit by pit. */
+    private int sowSeeds(int pit, int num_seeds){
+        int base = index(turn_player, 0);
+        int laps = num_seeds / PITS_PER_PLAYER;
+
+        if(laps > 0){
+            for(int i = 0; i < PITS_PER_PLAYER; i++){
+                addSeeds(base + i, laps);
+            }
+
+            num_seeds -= laps * PITS_PER_PLAYER;
+        }
+
         while(num_seeds > 0){
-            pit = getNextPit(pit, d);
-            board[turn_player][pit]++;
+            pit = next_pit[pit];
+            addSeed(base + pit);
             num_seeds--;
         }
 
@@ -233,8 +704,7 @@ public class HusBoardState extends BoardState{
      * so this function does not return until the final seed in a
      * sowing sequence is placed in an empty pit. */
     private int runMove(int start_pit){
-        int n_seeds_in_hand = board[turn_player][start_pit];
-        board[turn_player][start_pit] = 0;
+        int n_seeds_in_hand = takeSeeds(index(turn_player, start_pit));
 
         int end_pit;
         int num_iterations = 0;
@@ -245,17 +715,16 @@ public class HusBoardState extends BoardState{
                 return -1;
             }
 
-            end_pit = sowSeeds(start_pit, n_seeds_in_hand, Direction.CCW);
+            end_pit = sowSeeds(start_pit, n_seeds_in_hand);
             num_iterations++;
 
-            if(board[turn_player][end_pit] > 1){
+            if(pits[index(turn_player, end_pit)] > 1){
                 // Landed in an occupied pit
 
                 if(canCapture(turn_player, end_pit)){
                     n_seeds_in_hand = capture(turn_player, end_pit);
                 }else{
-                    n_seeds_in_hand = board[turn_player][end_pit];
-                    board[turn_player][end_pit] = 0;
+                    n_seeds_in_hand = takeSeeds(index(turn_player, end_pit));
                 }
 
                 start_pit = end_pit;
@@ -292,23 +761,16 @@ public class HusBoardState extends BoardState{
             return false;
         }
 
-        if(pit < BOARD_WIDTH || pit >= 2 * BOARD_WIDTH){
+        int opponent_front = opposite_front[pit];
+
+        if(opponent_front < 0){
             // Pit is not in the inner row, so no capture.
             return false;
         }
 
-        int opponent_player_id = (player_id + 1) % 2;
-        int opponent_pit = pit - BOARD_WIDTH;
-
-        boolean test = true;
-
         // Opponent back row - not required for capture in Hus.
-        // test &= board[opponent_player_id][opponent_pit] > 0;
-
-        // Opponent front row
-        test &= board[opponent_player_id][2 * BOARD_WIDTH - 1 - opponent_pit] > 0;
-
-        return test;
+        // Opponent front row must be occupied.
+        return pits[index(1 - player_id, opponent_front)] > 0;
     }
 
     /**
@@ -317,31 +779,20 @@ public class HusBoardState extends BoardState{
      * (i.e. canCapture returns true), and behaviour is undefined
      * otherwise. */
     private int capture(int player_id, int pit){
-        int opponent_player_id = (player_id + 1) % 2;
-        int opponent_pit = pit - BOARD_WIDTH;
+        int opponent_player_id = 1 - player_id;
 
-        int captured_seeds = board[opponent_player_id][opponent_pit];
-        captured_seeds += board[opponent_player_id][2 * BOARD_WIDTH - 1 - opponent_pit];
+        int back = index(opponent_player_id, opposite_back[pit]);
+        int front = index(opponent_player_id, opposite_front[pit]);
 
-        board[opponent_player_id][opponent_pit] = 0;
-        board[opponent_player_id][2 * BOARD_WIDTH - 1 - opponent_pit] = 0;
+        int captured_seeds = takeSeeds(back);
+        captured_seeds += takeSeeds(front);
 
         return captured_seeds;
     }
 
     /** Return whether the given player has any more valid moves. */
     private boolean hasValidMoves(int player_id){
-        int pit = 0;
-
-        for(int i = 0; i < 2 * BOARD_WIDTH; i++){
-            if (board[player_id][pit] > 1){
-                return true;
-            }
-
-            pit = getNextPit(pit, Direction.CCW);
-        }
-
-        return false;
+        return getLegalPitMask(player_id) != 0;
     }
 
     /** Detect when a player has won. Called at the end of a turn. A player
@@ -364,7 +815,103 @@ public class HusBoardState extends BoardState{
 
     @Override
     public Object clone() {
-        return new HusBoardState(board, turn_number, winner, turn_player, first_player);
+        return new HusBoardState(this);
+    }
+
+    /** Two states are equal if all their pits, the player to move, the
+     * turn number and the winner are the same. */
+    @Override
+    public boolean equals(Object o) {
+        if(this == o){
+            return true;
+        }
+
+        if(!(o instanceof HusBoardState)){
+            return false;
+        }
+
+        HusBoardState other = (HusBoardState) o;
+        return hash_key == other.hash_key && sameAs(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (hash_key ^ (hash_key >>> 32));
+    }
+
+    /* Binary encoding. A position is ENCODED_LENGTH bytes:
+     *   0-63   seeds in each pit, Player 0's pits 0-31 then Player 1's
+     *   64     turn player in bit 0, first player in bit 1
+     *   65     winner: 0 or 1 for a player, then DRAW, NOBODY, CANCELLED0
+     *          and CANCELLED1 as 2 to 5
+     *   66-67  turn number, unsigned
+     * Together with the one byte move codes of HusMove this is the format
+     * for anything that stores positions in bulk. */
+
+    /** Number of bytes in the binary encoding of a state. */
+    public static final int ENCODED_LENGTH = 2 * PITS_PER_PLAYER + 4;
+
+    // Winners in the order of their one byte codes.
+    private static final int[] winner_codes = {0, 1, DRAW, NOBODY, CANCELLED0, CANCELLED1};
+
+    /** Write this state to ``buf`` at its current position, advancing it
+     * by ENCODED_LENGTH bytes. */
+    public void writeTo(ByteBuffer buf){
+        buf.put(pits);
+        buf.put((byte) (turn_player | first_player << 1));
+
+        int code = 0;
+        while(code < winner_codes.length && winner_codes[code] != winner){
+            code++;
+        }
+
+        if(code == winner_codes.length){
+            throw new IllegalStateException("Cannot encode winner " + winner);
+        }
+
+        buf.put((byte) code);
+        buf.putShort((short) turn_number);
+    }
+
+    /** Overwrite this state with one read from ``buf`` at its current
+     * position, advancing it by ENCODED_LENGTH bytes. Does not allocate,
+     * so a single state can be reused to scan a whole file.
+     * Throws IllegalArgumentException if the bytes are not a valid state,
+     * in which case this state is left unchanged. */
+    public void readFrom(ByteBuffer buf) throws IllegalArgumentException {
+        int start = buf.position();
+        int seeds = 0;
+
+        for(int i = 0; i < pits.length; i++){
+            if(buf.get(start + i) < 0){
+                throw new IllegalArgumentException(
+                    "Invalid encoded state: negative seed count in pit " + i);
+            }
+            seeds += buf.get(start + i);
+        }
+
+        if(seeds > TOTAL_SEEDS){
+            throw new IllegalArgumentException(
+                "Invalid encoded state: " + seeds + " seeds, more than " + TOTAL_SEEDS);
+        }
+
+        int players = buf.get(start + pits.length);
+        int code = buf.get(start + pits.length + 1);
+
+        if((players & ~3) != 0 || code < 0 || code >= winner_codes.length){
+            throw new IllegalArgumentException(
+                "Invalid encoded state: bad player or winner byte.");
+        }
+
+        buf.get(pits);
+        buf.position(start + pits.length + 2);
+
+        turn_player = players & 1;
+        first_player = players >> 1;
+        winner = winner_codes[code];
+        turn_number = buf.getShort() & 0xFFFF;
+
+        resetDerived();
     }
 
     /** Used by the server to force a winner in the event of an error. */
@@ -380,7 +927,7 @@ public class HusBoardState extends BoardState{
             if(i > 0)
                 sb.append(",");
 
-            sb.append(Integer.toString(board[0][i]));
+            sb.append(Integer.toString(pits[index(0, i)]));
         }
 
         sb.append("\nPlayer 1: \n");
@@ -388,7 +935,7 @@ public class HusBoardState extends BoardState{
             if(i > 0)
                 sb.append(",");
 
-            sb.append(Integer.toString(board[1][i]));
+            sb.append(Integer.toString(pits[index(1, i)]));
         }
 
         sb.append("\nNext to play: " + turn_player);
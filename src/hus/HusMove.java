@@ -1,9 +1,36 @@
 package hus;
 
+import java.nio.ByteBuffer;
+
 import boardgame.Move;
 
 public class HusMove extends Move{
 
+    /** Number of distinct move codes. Codes [0, 2 * PITS_PER_PLAYER) are
+     * PIT moves (see ``encode``), and the last two are each player's
+     * NOTHING move. Every code fits in a single byte. */
+    public static final int NUM_CODES = 2 * HusBoardState.PITS_PER_PLAYER + 2;
+
+    // First of the two NOTHING codes.
+    private static final int NOTHING_CODE = 2 * HusBoardState.PITS_PER_PLAYER;
+
+    // One shared instance per move code.
+    private static final HusMove[] canonical = new HusMove[NUM_CODES];
+
+    static {
+        for(int code = 0; code < NOTHING_CODE; code++){
+            canonical[code] = new HusMove(codePit(code), codePlayer(code));
+            canonical[code].is_canonical = true;
+        }
+
+        for(int player_id = 0; player_id < 2; player_id++){
+            HusMove nothing = new HusMove();
+            nothing.player_id = player_id;
+            nothing.is_canonical = true;
+            canonical[NOTHING_CODE + player_id] = nothing;
+        }
+    }
+
     int player_id = -1;
 
     public enum MoveType{
@@ -17,6 +44,13 @@ public class HusMove extends Move{
     MoveType move_type;
     boolean from_board = false;
 
+    // Shared instances must never change: every agent, board state and
+    // search holds the same ones, and the move lists of every position
+    // are built from them, so changing one would silently change the
+    // move everywhere else it is held. Use ``forPlayer`` to get the move
+    // for another player instead.
+    private boolean is_canonical = false;
+
     /**
      * Create a degenerate move.
      */
@@ -72,6 +106,80 @@ public class HusMove extends Move{
         }
     }
 
+    /** Return the shared PIT move for the given pit and player. Agents
+     * should prefer this to the constructor, since it never allocates. */
+    public static HusMove getMove(int pit, int player_id) {
+        return canonical[encode(pit, player_id)];
+    }
+
+    /** Return the shared NOTHING move for the given player. */
+    public static HusMove getNothingMove(int player_id) {
+        return canonical[NOTHING_CODE + player_id];
+    }
+
+    /** Return the shared move with the given code. */
+    public static HusMove fromCode(int code) {
+        return canonical[code];
+    }
+
+    /** Parse a string produced by ``toTransportable`` into the shared
+     * instance for that move, rather than a new one. */
+    public static HusMove parse(String str) {
+        HusMove m = new HusMove(str);
+
+        if(m.player_id < 0 || m.player_id > 1
+                || m.pit < 0 || m.pit >= HusBoardState.PITS_PER_PLAYER){
+            throw new IllegalArgumentException(
+                "Received a string that cannot be interpreted as a HusMove.");
+        }
+
+        return m.move_type == MoveType.PIT
+            ? getMove(m.pit, m.player_id)
+            : getNothingMove(m.player_id);
+    }
+
+    /** Integer code of the PIT move for the given pit and player. */
+    public static int encode(int pit, int player_id) {
+        return player_id * HusBoardState.PITS_PER_PLAYER + pit;
+    }
+
+    /** Player who plays the move with the given code. */
+    public static int codePlayer(int code) {
+        return code < NOTHING_CODE ? code / HusBoardState.PITS_PER_PLAYER : code - NOTHING_CODE;
+    }
+
+    /** Pit played by the move with the given code, or -1 for NOTHING. */
+    public static int codePit(int code) {
+        return code < NOTHING_CODE ? code % HusBoardState.PITS_PER_PLAYER : -1;
+    }
+
+    /** Integer code of this move, in [0, NUM_CODES). The move must have
+     * a player set. */
+    public int toCode() {
+        if(player_id < 0 || player_id > 1){
+            throw new IllegalStateException("Move has no player: " + toPrettyString());
+        }
+
+        return move_type == MoveType.PIT ? encode(pit, player_id) : NOTHING_CODE + player_id;
+    }
+
+    /** Write this move's code to ``buf`` as a single byte. */
+    public void writeTo(ByteBuffer buf) {
+        buf.put((byte) toCode());
+    }
+
+    /** Read a move written by ``writeTo``, returning the shared instance.
+     * Throws IllegalArgumentException if the byte is not a move code. */
+    public static HusMove readFrom(ByteBuffer buf) throws IllegalArgumentException {
+        int code = buf.get();
+
+        if(code < 0 || code >= NUM_CODES){
+            throw new IllegalArgumentException("Invalid encoded move: " + code);
+        }
+
+        return canonical[code];
+    }
+
     public MoveType getMoveType() {
         return move_type;
     }
@@ -83,11 +191,33 @@ public class HusMove extends Move{
     /* Members below here are only used by the server; Player agents
      * should not worry about them. */
 
+    /** Shared moves cannot be changed, so this throws
+     * UnsupportedOperationException if it would change one; see
+     * ``forPlayer``. */
     @Override
     public void setPlayerID(int player_id) {
+        if(is_canonical && player_id != this.player_id){
+            throw new UnsupportedOperationException(
+                "Cannot change the player of a shared move: " + toPrettyString());
+        }
+
         this.player_id = player_id;
     }
 
+    /** The shared move for the same pit, or NOTHING, played by the given
+     * player. Moves that are not shared are changed in place. */
+    @Override
+    public Move forPlayer(int player_id) {
+        if(!is_canonical || player_id == this.player_id
+                || player_id < 0 || player_id > 1){
+            return super.forPlayer(player_id);
+        }
+
+        return move_type == MoveType.PIT
+            ? getMove(pit, player_id)
+            : getNothingMove(player_id);
+    }
+
     @Override
     public int getPlayerID() {
         return player_id;
@@ -95,6 +225,11 @@ public class HusMove extends Move{
 
     @Override
     public void setFromBoard(boolean from_board) {
+        if(is_canonical && from_board != this.from_board){
+            throw new UnsupportedOperationException(
+                "Cannot change a shared move: " + toPrettyString());
+        }
+
         this.from_board = from_board;
     }
 
@@ -1,5 +1,8 @@
 package student_player;
 
+import boardgame.BoardState;
+import boardgame.Move;
+
 import hus.HusBoardState;
 import hus.HusPlayer;
 import hus.HusMove;
@@ -11,6 +14,27 @@ import student_player.mytools.*;
 /** A Hus player submitted by a student. */
 public class StudentPlayer extends HusPlayer {
 
+    // Kept for the whole game so that results carry over between moves.
+    // Allocated on the first move, which has a much longer time limit.
+    private TranspositionTable table;
+
+    // Number of search threads. Defaults to one per core; override with
+    // -Dstudent.threads=N.
+    private static final int THREADS =
+        Integer.getInteger("student.threads", Runtime.getRuntime().availableProcessors());
+
+    // Search to play with: alpha-beta unless run with -Dstudent.search=mcts.
+    private static final boolean MCTS = "mcts".equals(System.getProperty("student.search"));
+
+    // MCTS tree, kept for the whole game and advanced by every move played,
+    // so that the statistics of the subtree we end up in carry over.
+    private MonteCarlo.Tree tree;
+
+    // When the last move arrived from the server, or 0. The clock for our
+    // move is already running by the time movePlayed advances the tree for
+    // the opponent's move, so the search budget counts from here.
+    private long moveArrived = 0;
+
     /** You must modify this constructor to return your student number.
      * This is important, because this is what the code that runs the
      * competition uses to associate you with your agent.
@@ -26,14 +50,21 @@ public class StudentPlayer extends HusPlayer {
         Functions.EvaluationFunctionFactory factory = new Functions.EvaluationFunctionFactory(player_id);
         Functions.EvaluationFunction func = factory.getEvaluationFunction("branching");
 
-        // MonteCarlo.SearchThread t = new MonteCarlo.SearchThread(board_state, func, player_id);
-
         long startTime = System.currentTimeMillis();
 
+        if (MCTS) {
+            return chooseMoveMcts(board_state, startTime);
+        }
+
         int STARTING_DEPTH = 5;
 
+        if (table == null) {
+            table = TranspositionTable.sizedForHeap(0.25);
+        }
+        table.newSearch();
+
         // UNCOMMENT TO SWITCH TO ALPHA-BETA PRUNING.
-        AlphaBeta.SearchThread t = new AlphaBeta.SearchThread(board_state, func, player_id, STARTING_DEPTH);
+        AlphaBeta.LazySmp t = new AlphaBeta.LazySmp(board_state, func, player_id, STARTING_DEPTH, table, THREADS);
         t.start();
 
         HusMove chosenMove;
@@ -62,4 +93,52 @@ public class StudentPlayer extends HusPlayer {
 
         return chosenMove;
     }
+
+    private HusMove chooseMoveMcts(HusBoardState board_state, long startTime) {
+        if (moveArrived > 0) {
+            startTime = Math.min(startTime, moveArrived);
+            moveArrived = 0;
+        }
+
+        // Allocated on the first move, like the table.
+        if (tree == null) {
+            tree = MonteCarlo.Tree.sizedForHeap(board_state, player_id, 0.25);
+        } else if (!tree.getRootState().equals(board_state)) {
+            System.out.println("Tree out of sync with the board, starting over.");
+            tree.reset(board_state);
+        }
+        System.out.println("Reusing " + tree.getVisits(0) + " visits in " + tree.size() + " nodes");
+
+        Functions.EvaluationFunction basic = new Functions.EvaluationFunctionFactory(player_id).getEvaluationFunction("basic");
+        MonteCarlo.TreeParallel t = new MonteCarlo.TreeParallel(tree, THREADS, new Playout.CaptureFirst(), startTime);
+        t.setHorizon(new Playout.Horizon(20, basic, 8, 30));
+        t.start();
+
+        long makeTime = System.currentTimeMillis() - startTime;
+
+        try {
+            if (board_state.getTurnNumber() > 0) {
+                Thread.sleep(Math.max(1900 - makeTime, 0));
+            } else {
+                Thread.sleep(Math.max(29000 - makeTime, 0));
+            }
+        } catch (InterruptedException e) {
+        }
+
+        try {
+            return t.getMove();
+        } catch (InterruptedException e) {
+            return tree.getBestMove();
+        }
+    }
+
+    // Every move, ours included, comes back from the server through here;
+    // each one advances the kept tree. chooseMove starts over if it is
+    // still out of sync.
+    public void movePlayed(BoardState board_state, Move move) {
+        moveArrived = System.currentTimeMillis();
+        if (tree != null && tree.getRootState().isLegal((HusMove) move)) {
+            tree.play(((HusMove) move).getPit());
+        }
+    }
 }
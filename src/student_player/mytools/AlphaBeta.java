@@ -6,234 +6,750 @@ import hus.HusMove;
 
 import java.util.Arrays;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import student_player.mytools.Functions;
 
 public class AlphaBeta {
+
+    // Parameters of the selective parts of the search, kept together so that
+    // they can be tuned with self-play.
+    //
+    // Late move reductions: once the first lmrFullMoves moves at a node have
+    // been searched, later quiet moves are searched reduction(depth, i) plies
+    // shallower with a null window, and only searched to full depth if that
+    // beats alpha. The reduction grows as base + ln(depth) * ln(i) / divisor.
+    //
+    // Null move pruning: at nodes at least nullMoveMinDepth deep whose static
+    // evaluation is already at or above beta, the side to move passes and the
+    // opponent gets a search nullMoveReduction plies shallower than usual. If
+    // even that fails high, the node is cut off without searching any moves.
+    public static class Selectivity {
+        public static final Selectivity DEFAULT = new Selectivity(0.5, 2.5, 3, 3, 4, 2);
+
+        // Searches every move to full depth, as the search did before.
+        public static final Selectivity NONE =
+            new Selectivity(0, 1, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, 0);
+
+        public final int lmrMinDepth;
+        public final int lmrFullMoves;
+        public final int nullMoveMinDepth;
+        public final int nullMoveReduction;
+        private final int[][] reductions;
+
+        public Selectivity(double base, double divisor, int lmrMinDepth, int lmrFullMoves,
+                int nullMoveMinDepth, int nullMoveReduction) {
+            this.lmrMinDepth = lmrMinDepth;
+            this.lmrFullMoves = lmrFullMoves;
+            this.nullMoveMinDepth = nullMoveMinDepth;
+            this.nullMoveReduction = nullMoveReduction;
+
+            reductions = new int[SearchThread.MAX_DEPTH + 1][32];
+            for (int d = 1; d < reductions.length; d++) {
+                for (int i = 1; i < 32; i++) {
+                    reductions[d][i] = Math.max(0, (int) (base + Math.log(d) * Math.log(i) / divisor));
+                }
+            }
+        }
+
+        // Plies to reduce the i-th move (counting from 0) at a node of the given depth.
+        public int reduction(int depth, int i) {
+            if (depth < lmrMinDepth || i < lmrFullMoves) {
+                return 0;
+            }
+            return reductions[Math.min(depth, SearchThread.MAX_DEPTH)][i];
+        }
+
+        public String toString() {
+            return "lmr from depth " + lmrMinDepth + " after " + lmrFullMoves + " moves, "
+                + "null move from depth " + nullMoveMinDepth + " R=" + nullMoveReduction;
+        }
+    }
+
+    // Yields the legal moves of a node one at a time, in stages, doing only
+    // the work each stage needs:
+    //   1. the principal variation move and the table's move, before any
+    //      other move has been looked at;
+    //   2. moves that capture on their first sowing, biggest first;
+    //   3. the two killers and the counter move;
+    //   4. everything else, picked one at a time by history.
+    // A cutoff on an early move skips the later stages entirely. The picker
+    // never plays a move; the search plays each one when it is yielded.
+    static final class MovePicker {
+        static final int STAGE_FIRST = 0;
+        static final int STAGE_CAPTURES = 1;
+        static final int STAGE_KILLERS = 2;
+        static final int STAGE_QUIETS = 3;
+        static final int STAGE_DONE = 4;
+
+        private HusBoardState state;
+        private int legal;
+        private int yielded; // Pits already returned by next.
+        private int stage;
+
+        // Moves of the first and killer stages, in order.
+        private final int[] special = new int[3];
+        private int numSpecial;
+
+        // Moves of the capture and quiet stages, with their scores.
+        private final int[] pits = new int[32];
+        private final int[] scores = new int[32];
+        private int n;
+        private int index;
+
+        private int killer0, killer1, counter;
+        private int[] history;
+
+        // Start picking moves for the current position of s.
+        void reset(HusBoardState s, int pvPit, int hashPit, int k0, int k1, int c, int[] h) {
+            state = s;
+            legal = s.getLegalPitMask();
+            yielded = 0;
+            stage = STAGE_FIRST;
+            killer0 = k0;
+            killer1 = k1;
+            counter = c;
+            history = h;
+
+            numSpecial = 0;
+            addSpecial(pvPit);
+            addSpecial(hashPit);
+            index = 0;
+        }
+
+        // Number of legal moves at the node.
+        int count() {
+            return Integer.bitCount(legal);
+        }
+
+        // Whether the last move returned by next came from the capture stage.
+        boolean isCapture() {
+            return stage == STAGE_CAPTURES;
+        }
+
+        // Next move to search, or -1 when there are none left.
+        int next() {
+            while (true) {
+                switch (stage) {
+                    case STAGE_FIRST:
+                    case STAGE_KILLERS:
+                        if (index < numSpecial) {
+                            return emit(special[index++]);
+                        }
+                        if (stage == STAGE_FIRST) {
+                            generate(true);
+                            stage = STAGE_CAPTURES;
+                        } else {
+                            generate(false);
+                            stage = STAGE_QUIETS;
+                        }
+                        break;
+
+                    case STAGE_CAPTURES:
+                        if (index < n) {
+                            return emit(pits[index++]);
+                        }
+                        numSpecial = 0;
+                        addSpecial(killer0);
+                        addSpecial(killer1);
+                        addSpecial(counter);
+                        index = 0;
+                        stage = STAGE_KILLERS;
+                        break;
+
+                    case STAGE_QUIETS:
+                        if (index < n) {
+                            // Selection sort, one step per move yielded.
+                            int best = index;
+                            for (int i = index + 1; i < n; i++) {
+                                if (scores[i] > scores[best]) {
+                                    best = i;
+                                }
+                            }
+                            int pit = pits[best];
+                            pits[best] = pits[index];
+                            scores[best] = scores[index];
+                            index++;
+                            return emit(pit);
+                        }
+                        stage = STAGE_DONE;
+                        break;
+
+                    default:
+                        return -1;
+                }
+            }
+        }
+
+        private int emit(int pit) {
+            yielded |= 1 << pit;
+            return pit;
+        }
+
+        // Queue pit for the current special stage if it is legal and new.
+        private void addSpecial(int pit) {
+            if (pit >= 0 && (legal & 1 << pit) != 0 && (yielded & 1 << pit) == 0) {
+                for (int i = 0; i < numSpecial; i++) {
+                    if (special[i] == pit) { return; }
+                }
+                special[numSpecial++] = pit;
+            }
+        }
+
+        // Fill pits with the captures, sorted by gain, or with all the
+        // remaining moves scored by history.
+        private void generate(boolean captures) {
+            n = 0;
+            index = 0;
+
+            for (int m = legal & ~yielded; m != 0; m &= m - 1) {
+                int pit = Integer.numberOfTrailingZeros(m);
+                if (captures) {
+                    int gain = state.getCaptureGain(pit);
+                    if (gain > 0) {
+                        pits[n] = pit;
+                        scores[n++] = gain;
+                    }
+                } else {
+                    pits[n] = pit;
+                    scores[n++] = history[pit];
+                }
+            }
+
+            if (captures) {
+                SearchThread.sortMoves(pits, scores, n);
+            }
+        }
+    }
+
     public static class SearchThread extends Thread {
+        static final int MAX_DEPTH = 50;
+
+        // Quiescence search extends captures past the horizon, at most this many plies.
+        static final int MAX_QUIESCENCE_DEPTH = 6;
+
+        // A capture is skipped in quiescence if even winning twice its seeds
+        // (the seeds change sides) plus this margin cannot raise alpha.
+        static final int DELTA_MARGIN = 8;
+
+        static final int MAX_PLY = MAX_DEPTH + MAX_QUIESCENCE_DEPTH + 1;
+
+        // Stored in playedPits for a null move.
+        static final int NULL_MOVE = -1;
+
+        // Null moves are not tried with this few legal moves, where having to
+        // move at all may be what loses.
+        static final int NULL_MOVE_MIN_MOVES = 3;
+
+        // Scores are negamax scores: from the point of view of the player to move
+        // at the node. A win found at ply p scores WIN - p, so that shallower
+        // victories are better victories. Evaluations stay far below WIN_BOUND.
+        static final int INFINITY = 1000000;
+        static final int WIN = 100000;
+        static final int WIN_BOUND = WIN - MAX_PLY;
+
+        // Half-width of the aspiration window around the previous depth's score.
+        static final int ASPIRATION_WINDOW = 8;
+
+        // History scores are halved when one reaches this.
+        static final int HISTORY_MAX = 1 << 20;
+
         private HusMove bestMove; // Always to be changed via the synchronized setter setMove.
 
         private HusBoardState startingState;
         private Functions.EvaluationFunction evalFunc;
         private int myID;
         private int startingDepth;
-        private int branchesPruned = 0;
-        private int branchingFactor = 0;
-        
+        private volatile int branchingFactor = 0;
+
+        // Only touched by this thread while it runs. Published to
+        // branchesPruned after every depth so that other threads can read it
+        // without the workers ever having to synchronize.
+        private int pruned = 0;
+        private volatile int branchesPruned = 0;
+
+        // Helpers of a LazySmp search start depthOffset plies deeper than
+        // startingDepth, and neither report moves nor print.
+        private boolean helper = false;
+        private int depthOffset = 0;
+        private TranspositionTable table; // May be null, in which case no table is used.
+        private Selectivity selectivity = Selectivity.DEFAULT;
+
+        // Search state, all indexed by ply. The search runs on a single copy of
+        // the starting state with make/unmake, so each ply needs its own undo
+        // record and move list.
+        private HusBoardState state;
+        private HusBoardState.Undo[] undos;
+        private int[][] moveLists;
+        private int[][] moveScores;
+        private MovePicker[] pickers;
+        private int[] playedPits; // Pit played from each ply to reach the next.
+
+        // Move ordering heuristics, learned as the search runs:
+        //   killers[p]            the last two moves that caused a cutoff at ply p
+        //   counterMoves[id][pit] id's last cutoff move in reply to the opponent playing pit
+        //   history[id][pit]      how often (weighted by depth) pit caused a cutoff for id
+        private int[][] killers;
+        private int[][] counterMoves;
+        private int[][] history;
+
+        // Triangular principal variation table: pvTable[p] holds the best line
+        // found from ply p, of which pvLength[p] - p moves are valid.
+        private int[][] pvTable;
+        private int[] pvLength;
+
+        // Principal variation of the last completed depth. While followPv is
+        // set, the search is still on that line and plays its move first.
+        private int[] pv = new int[0];
+        private boolean followPv;
+
         public SearchThread(HusBoardState s, Functions.EvaluationFunction f, int id, int d) {
+            this(s, f, id, d, null);
+        }
+
+        // The table can be kept between moves (call newSearch on it before each one)
+        // and shared with other search threads.
+        public SearchThread(HusBoardState s, Functions.EvaluationFunction f, int id, int d, TranspositionTable t) {
             startingState = s;
             evalFunc = f;
             myID = id;
             startingDepth = d;
+            table = t;
+        }
+
+        // Must be called before the thread is started.
+        public void setSelectivity(Selectivity s) {
+            selectivity = s;
         }
 
         public void run() {
-            int MAX_DEPTH = 50;
+            state = (HusBoardState) startingState.clone();
+            undos = new HusBoardState.Undo[MAX_PLY];
+            moveLists = new int[MAX_PLY][32];
+            moveScores = new int[MAX_PLY][32];
+            pvTable = new int[MAX_PLY][MAX_PLY];
+            pvLength = new int[MAX_PLY];
+            playedPits = new int[MAX_PLY];
+            pickers = new MovePicker[MAX_PLY];
+            killers = new int[MAX_PLY][2];
+            counterMoves = new int[2][32];
+            history = new int[2][32];
+            for (int i = 0; i < MAX_PLY; i++) {
+                undos[i] = new HusBoardState.Undo();
+                pickers[i] = new MovePicker();
+                Arrays.fill(killers[i], -1);
+            }
+            Arrays.fill(counterMoves[0], -1);
+            Arrays.fill(counterMoves[1], -1);
 
-            HusMove[] l = startingState.getLegalMoves().toArray(new HusMove[startingState.getLegalMoves().size()]); // All legal moves from starting state.
-            HusBoardState[] topLevelStates = new HusBoardState[l.length];
-            HashMap<HusBoardState, HusMove> stateMap = new HashMap<HusBoardState, HusMove>();
+            // Root moves, sorted once by evaluation. Interior nodes are ordered
+            // lazily by a MovePicker instead: PV and table move, captures,
+            // killers and the counter move, then the rest by history. Each
+            // time a root move becomes the best one it is shifted to the front,
+            // so the best move of the last depth is always searched first.
+            int[] rootPits = new int[state.getNumLegalMoves()];
+            int n = generateMoves(rootPits, new int[rootPits.length], 0);
+            branchingFactor = n; // Record branching factor for debugging.
 
-            for (int a = 0; a < l.length; a++) {
-                HusMove nextMove = l[a];
-                HusBoardState newState = (HusBoardState) startingState.clone();
-                newState.move(nextMove);
+            if (!helper) { System.out.println("Sorted top level states."); }
 
-                stateMap.put(newState, nextMove);
+            int score = 0;
 
-                topLevelStates[a] = newState;
-            }
+            int firstDepth = startingDepth + depthOffset;
 
-            Arrays.sort(topLevelStates, evalFunc.reversed());
+            for (int depth = firstDepth; depth < MAX_DEPTH; depth++) {
+                if (this.isInterrupted()) { break; }
 
-            System.out.println("Sorted top level states.");
+                // Search a narrow window around the last depth's score first,
+                // widening the side that fails until the score falls inside.
+                int alpha = -INFINITY;
+                int beta = INFINITY;
+                if (depth > firstDepth && Math.abs(score) < WIN_BOUND) {
+                    alpha = score - ASPIRATION_WINDOW;
+                    beta = score + ASPIRATION_WINDOW;
+                }
 
-            branchingFactor = l.length; // Record branching factor for debugging.
+                while (true) {
+                    int val = searchRoot(rootPits, alpha, beta, depth);
 
+                    if (this.isInterrupted()) { break; }
 
-            for (int depth = startingDepth; depth < MAX_DEPTH; depth++) {
-                if (this.isInterrupted()) { break; }
-
-                int LOW = Integer.MIN_VALUE;
-                // We have no upper bound because we assume that the root node is a max node.
-                
-                int i = 0;
-
-                while (!this.isInterrupted() && i < topLevelStates.length) {
-                    
-                    HusBoardState nextState = topLevelStates[i];
-
-                    int val = alphaBetaPrune(nextState, evalFunc, Integer.MIN_VALUE, Integer.MAX_VALUE, depth, true);
-
-                    // Everytime we get a value, we check if this value is both better than
-                    // the current best value for that move.
-                    //
-                    // Or we could compare only moves at the same depth with each other.
-                    //
-                    // Tradeoff between the two: if we just check if this value
-                    // is the best value for the move, we may incorrectly reject a move
-                    // as our evaluation function might overestimate the value of a move
-                    // due to not searching deep enough.
-                    //
-                    // If we only compare moves at the same depth with each other, then
-                    // we implicitly don't trust our evaluation function as a move
-                    // with a lower score, searched from a deeper search, would be chosen
-                    // over another higher scoring that was searched from a shallower search.
-                    // This would only occur in a case where a search is interrupted prematurely
-                    // due to time constraints.
-                    //
-                    // My intuition is that a deeper search will win more often, even
-                    // if we are removing all solutions that have been found from shallower searches.
-                    //
-                    // We implement this by resetting the low bound with every new search depth.
-                    //
-                    // This should also serve to address the null pointer issues when the agent
-                    // does not find a move quickly enough with a specified depth.
-                    //
-                    // Note: We are attempting to solve the problem of selecting a subpar solution
-                    // and having the thread terminate early by properly ordering the states before calling
-                    // alphaBetaPrune on them.
-                    //
-                    // We also do this ordering within the pruning function itself.
-                    
-
-                    // todo: If the int value from this path corresponds to a victory value, then we stop searching
-                    // because this path guarantees victory. We might not have to program this if we always search for
-                    // the best path even from the previous depth though.
-                    if (val > LOW) {
-                        LOW = val;
-                        HusMove n = stateMap.get(nextState);
-                        shiftToFront(topLevelStates, i);
-                        setMove(n);
-                        System.out.println("Move updated: " + n.toPrettyString() + " at depth " + depth);
+                    if (val <= alpha) {
+                        alpha = -INFINITY;
+                    } else if (val >= beta) {
+                        beta = INFINITY;
+                    } else {
+                        score = val;
+                        pv = Arrays.copyOf(pvTable[0], pvLength[0]);
+                        break;
                     }
-                    i++;
                 }
+                branchesPruned = pruned;
             }
-            if (!this.isInterrupted()) { System.out.println("Thread terminated naturally."); }
-        }
-
-        void shiftToFront(HusBoardState[] arr, int i) {
-            HusBoardState temp = arr[i];
-            for (int a = i; a > 0; a--) {
-                arr[a] = arr[a-1];
-            }
-            arr[0] = temp;
+            branchesPruned = pruned;
+            if (!this.isInterrupted() && !helper) { System.out.println("Thread terminated naturally."); }
         }
 
-        static boolean stateEquals(HusBoardState a, HusBoardState b) {
-            int[][] aBoard = a.getPits();
-            int[][] bBoard = b.getPits();
-            boolean f = true;
-
-            for (int i = 0; i < 32; i++) {
-                if (aBoard[0][i] != bBoard[0][i] || aBoard[1][i] != bBoard[1][i]) {
-                    f = false;
+        // Search the root moves in order with the given window.
+        //
+        // As before, only moves at the same depth are compared with each other:
+        // a move searched deeper is trusted over one that scored higher in a
+        // shallower search, even if the deeper search is interrupted by the timer
+        // before every move has been looked at. Since the best move of the last
+        // depth is searched first, the move reported is at worst that one.
+        int searchRoot(int[] rootPits, int alpha, int beta, int depth) {
+            HusBoardState.Undo undo = undos[0];
+            pvLength[0] = 0;
+            followPv = true;
+
+            for (int i = 0; i < rootPits.length; i++) {
+                followPv = i == 0 && pv.length > 0 && rootPits[0] == pv[0];
+
+                playedPits[0] = rootPits[i];
+                state.make(rootPits[i], undo);
+                int val;
+                if (i == 0) {
+                    val = -search(-beta, -alpha, depth - 1, 1);
+                } else {
+                    val = -search(-alpha - 1, -alpha, depth - 1, 1);
+                    if (val > alpha && val < beta && !this.isInterrupted()) {
+                        val = -search(-beta, -alpha, depth - 1, 1);
+                    }
                 }
-            }
+                state.unmake(undo);
 
-            return (a.getTurnPlayer() == b.getTurnPlayer() && f);
-        }
+                if (this.isInterrupted()) { return alpha; }
 
-        // Recursively expand and prune nodes. Returns the value of the node that this is called on
-        // to its optimal value based on its node type, the evaluation function used, and alpha-beta pruning.
-        int alphaBetaPrune(
-                HusBoardState currentState,
-                Functions.EvaluationFunction f, 
-                int lowerBound, 
-                int upperBound,
-                int depth,
-                boolean isMax) {
+                // todo: If the value from this path corresponds to a victory value, then we stop searching
+                // because this path guarantees victory.
+                if (val > alpha) {
+                    alpha = val;
+                    updatePv(0, rootPits[i]);
+                    shiftToFront(rootPits, i);
 
-            int bestValue;
+                    HusMove m = HusMove.getMove(rootPits[0], state.getTurnPlayer());
+                    setMove(m);
+                    if (!helper) {
+                        System.out.println("Move updated: " + m.toPrettyString() + " at depth " + depth);
+                    }
 
-            // Depth weighted victories: shallower victories are better victories.
-            if (currentState.gameOver()) {
-                if (currentState.getWinner() == myID) {
-                    return depth*100 + 100;
-                } else {
-                    return -(depth*100) - 100;
+                    if (val >= beta) {
+                        addPrunedBranches(rootPits.length - i - 1);
+                        break;
+                    }
                 }
             }
+            return alpha;
+        }
+
+        // Negamax principal variation search. Returns the value of the current
+        // state for the player to move, fail-soft: a value at or below alpha is
+        // an upper bound and one at or above beta is a lower bound.
+        //
+        // The first child is searched with the full window. Every other child is
+        // first searched with a null window around alpha, which only proves it is
+        // no better than the first; it is re-searched with the full window only if
+        // that fails.
+        int search(int alpha, int beta, int depth, int ply) {
+            pvLength[ply] = ply;
+
+            // Scores are from the point of view of the player to move at this node.
+            // The evaluation function is always from myID's.
+            int sign = state.getTurnPlayer() == myID ? 1 : -1;
+
+            if (state.gameOver()) {
+                return terminalScore(ply);
+            }
 
-            // Base case at the end of the minimax tree.
+            // Base case at the end of the search tree.
             if (depth == 0) {
-                return f.compute(currentState);
+                return quiesce(alpha, beta, ply, MAX_QUIESCENCE_DEPTH, sign * evalFunc.compute(state));
             }
 
-            HusMove[] l = currentState.getLegalMoves().toArray(new HusMove[currentState.getLegalMoves().size()]);
+            long key = state.getHashKey();
+            int hashPit = -1;
+            boolean pvNode = beta - alpha > 1;
+
+            // Transposition table lookup. Cutoffs are only taken in null-window
+            // searches, so that the principal variation is always searched out in full.
+            if (table != null) {
+                long entry = table.probe(key);
+
+                if (entry != TranspositionTable.MISS) {
+                    hashPit = TranspositionTable.pitOf(entry);
 
-            HusBoardState[] allStates = new HusBoardState[l.length];
+                    if (!pvNode && TranspositionTable.depthOf(entry) >= depth) {
+                        int score = fromTable(TranspositionTable.scoreOf(entry), ply);
+                        int bound = TranspositionTable.boundOf(entry);
 
-            // Make array of all possible states from this current state for later sorting.
-            for (int a = 0; a < l.length; a++) {
-                HusMove nextMove = l[a];
-                HusBoardState newState = (HusBoardState) currentState.clone();
-                newState.move(nextMove);
-                allStates[a] = newState;
+                        if (bound == TranspositionTable.EXACT
+                                || (bound == TranspositionTable.LOWER && score >= beta)
+                                || (bound == TranspositionTable.UPPER && score <= alpha)) {
+                            return score;
+                        }
+                    }
+                }
             }
 
-            int branchesRemaining = l.length;
+            // Null move pruning. Never two null moves in a row, since the second
+            // would just undo the first.
+            if (!pvNode && depth >= selectivity.nullMoveMinDepth
+                    && playedPits[ply - 1] != NULL_MOVE
+                    && state.getNumLegalMoves() >= NULL_MOVE_MIN_MOVES
+                    && sign * evalFunc.compute(state) >= beta) {
+                playedPits[ply] = NULL_MOVE;
+                state.makeNullMove(undos[ply]);
+                int val = -search(-beta, -beta + 1, Math.max(depth - 1 - selectivity.nullMoveReduction, 0), ply + 1);
+                state.unmake(undos[ply]);
+
+                if (this.isInterrupted()) { return 0; }
+
+                if (val >= beta) {
+                    // A win found after passing is not a real win.
+                    return val >= WIN_BOUND ? beta : val;
+                }
+            }
 
-            // Sort allStates using EvaluationFunction comparator, depending on min or max.
-            if (isMax) {
-                bestValue = lowerBound;
+            int id = state.getTurnPlayer();
+            int pvPit = followPv && ply < pv.length ? pv[ply] : -1;
+            int last = playedPits[ply - 1];
+            MovePicker picker = pickers[ply];
+            picker.reset(state, pvPit, hashPit, killers[ply][0], killers[ply][1],
+                    last != NULL_MOVE ? counterMoves[id][last] : -1, history[id]);
+
+            HusBoardState.Undo undo = undos[ply];
+            int alphaOrig = alpha;
+            int bestValue = -INFINITY;
+            int bestPit = -1;
+            int pit;
+
+            for (int i = 0; (pit = picker.next()) >= 0; i++) {
+                followPv = pit == pvPit;
+
+                // Captures are never reduced.
+                int reduction = 0;
+                if (i > 0 && depth > 1 && !picker.isCapture()) {
+                    reduction = Math.min(selectivity.reduction(depth, i), depth - 2);
+                }
 
-                // If max, sort in descending order (i.e., first we want to look
-                // at states where we are at an advantage).
-                Arrays.sort(allStates, f.reversed());
+                playedPits[ply] = pit;
+                state.make(pit, undo);
+                int val;
+                if (depth == 1) {
+                    // The child's evaluation is quiescence's stand-pat.
+                    val = -quiesce(-beta, -alpha, ply + 1, MAX_QUIESCENCE_DEPTH, -sign * evalFunc.compute(state));
+                } else if (i == 0) {
+                    val = -search(-beta, -alpha, depth - 1, ply + 1);
+                } else {
+                    val = -search(-alpha - 1, -alpha, depth - 1 - reduction, ply + 1);
+                    if (val > alpha && reduction > 0) {
+                        val = -search(-alpha - 1, -alpha, depth - 1, ply + 1);
+                    }
+                    if (val > alpha && val < beta) {
+                        val = -search(-beta, -alpha, depth - 1, ply + 1);
+                    }
+                }
+                state.unmake(undo);
 
-                int i = 0;
-                // Try ceiling of log? or square root?
-                // or searching a smaller "width" as the game progresses? (gotten from turnnumber)
-                int cap = Math.min(8, allStates.length);
-                while (i < cap && !this.isInterrupted()) {
-                    HusBoardState newState = allStates[i];
+                if (this.isInterrupted()) { return 0; }
 
-                    int val = alphaBetaPrune(newState, f, bestValue, upperBound, depth-1, false);
-                    branchesRemaining--;
+                if (val > bestValue) {
+                    bestValue = val;
+                    bestPit = pit;
 
-                    if (val > bestValue) {
-                        bestValue = val;
+                    if (val > alpha) {
+                        alpha = val;
+                        updatePv(ply, pit);
                     }
 
-                    if (val > upperBound) {
-                        addPrunedBranches(branchesRemaining);
-                        return upperBound;
+                    if (val >= beta) {
+                        addPrunedBranches(picker.count() - i - 1);
+                        recordCutoff(ply, depth, pit);
+                        break;
                     }
-                    i++;
                 }
+            }
+            followPv = false;
 
-            } else { // isMin
-                bestValue = upperBound;
+            int bound = bestValue >= beta ? TranspositionTable.LOWER
+                      : bestValue > alphaOrig ? TranspositionTable.EXACT
+                      : TranspositionTable.UPPER;
+            storeResult(key, depth, bound, toTable(bestValue, ply), bestPit);
 
-                // If min, sort in ascending order (i.e., first we want to look
-                // at states where we are at a disadvantage).
-                Arrays.sort(allStates, f);
+            return bestValue;
+        }
 
-                int cap = Math.min(8, allStates.length);
-                int i = 0;
-                while (i < cap && !this.isInterrupted()) {
-                    HusBoardState newState = allStates[i];
+        // Quiescence search: past the horizon, keep playing moves that capture
+        // on their first sowing, so that the value is not taken in the middle of
+        // an exchange. The player to move may also stand pat, i.e. take the
+        // static evaluation standPat, since they need not capture. Captures are
+        // tried biggest first and at most qdepth more plies are searched.
+        int quiesce(int alpha, int beta, int ply, int qdepth, int standPat) {
+            pvLength[ply] = ply;
 
-                    int val = alphaBetaPrune(newState, f, lowerBound, bestValue, depth-1, true);
-                    branchesRemaining--;
-                    if (val < bestValue) {
-                        bestValue = val;
+            if (state.gameOver()) {
+                return terminalScore(ply);
+            }
+
+            if (standPat >= beta || qdepth == 0) {
+                return standPat;
+            }
+            if (standPat > alpha) {
+                alpha = standPat;
+            }
+
+            int[] pits = moveLists[ply];
+            int[] gains = moveScores[ply];
+            int n = 0;
+
+            for (int legal = state.getLegalPitMask(); legal != 0; legal &= legal - 1) {
+                int pit = Integer.numberOfTrailingZeros(legal);
+                int gain = state.getCaptureGain(pit);
+                if (gain > 0) {
+                    pits[n] = pit;
+                    gains[n] = gain;
+                    n++;
+                }
+            }
+            sortMoves(pits, gains, n);
+
+            int sign = state.getTurnPlayer() == myID ? 1 : -1;
+            int bestValue = standPat;
+            HusBoardState.Undo undo = undos[ply];
+
+            for (int i = 0; i < n; i++) {
+                // Delta pruning: the rest capture no more than this one.
+                if (standPat + 2 * gains[i] + DELTA_MARGIN <= alpha) {
+                    break;
+                }
+
+                state.make(pits[i], undo);
+                int val = -quiesce(-beta, -alpha, ply + 1, qdepth - 1, -sign * evalFunc.compute(state));
+                state.unmake(undo);
+
+                if (this.isInterrupted()) { return 0; }
+
+                if (val > bestValue) {
+                    bestValue = val;
+                    if (val > alpha) {
+                        alpha = val;
                     }
-                    if (val < lowerBound) {
-                        addPrunedBranches(branchesRemaining);
-                        return lowerBound;
+                    if (val >= beta) {
+                        break;
                     }
-                    i++;
                 }
             }
 
             return bestValue;
         }
 
-        // Use this to update the best move in a synchronized way so that we can 
+        // Score of a finished game for the player to move at the given ply.
+        // Anything other than a win for myID counts as a loss for it.
+        int terminalScore(int ply) {
+            int mover = (ply & 1) == 0 ? startingState.getTurnPlayer() : 1 - startingState.getTurnPlayer();
+            boolean moverWins = (state.getWinner() == myID) == (mover == myID);
+            return moverWins ? WIN - ply : -(WIN - ply);
+        }
+
+        // Win scores depend on the ply they were found at, so they go into the
+        // table relative to the node and come out relative to the root again.
+        static int toTable(int score, int ply) {
+            return score >= WIN_BOUND ? score + ply : score <= -WIN_BOUND ? score - ply : score;
+        }
+
+        static int fromTable(int score, int ply) {
+            return score >= WIN_BOUND ? score - ply : score <= -WIN_BOUND ? score + ply : score;
+        }
+
+        // Fill pits with the legal moves of the current state, sorted best first for
+        // the player to move by the evaluation of the state each one leads to.
+        // Each child is evaluated once, into scores, and sorted there. Only used
+        // at the root; interior nodes use a MovePicker.
+        int generateMoves(int[] pits, int[] scores, int ply) {
+            int sign = state.getTurnPlayer() == myID ? 1 : -1;
+            HusBoardState.Undo undo = undos[ply];
+            int n = 0;
+
+            for (int legal = state.getLegalPitMask(); legal != 0; legal &= legal - 1, n++) {
+                pits[n] = Integer.numberOfTrailingZeros(legal);
+                state.make(pits[n], undo);
+                scores[n] = state.gameOver() ? -terminalScore(ply + 1) : sign * evalFunc.compute(state);
+                state.unmake(undo);
+            }
+
+            sortMoves(pits, scores, n);
+            return n;
+        }
+
+        // Remember a move that caused a beta cutoff at the given ply.
+        void recordCutoff(int ply, int depth, int pit) {
+            int id = state.getTurnPlayer();
+
+            if (killers[ply][0] != pit) {
+                killers[ply][1] = killers[ply][0];
+                killers[ply][0] = pit;
+            }
+
+            if (ply > 0 && playedPits[ply - 1] != NULL_MOVE) {
+                counterMoves[id][playedPits[ply - 1]] = pit;
+            }
+
+            history[id][pit] += depth * depth;
+            if (history[id][pit] >= HISTORY_MAX) {
+                // Halve everything, which keeps the order but lets newer
+                // cutoffs count for more than old ones.
+                for (int p = 0; p < 32; p++) {
+                    history[0][p] >>= 1;
+                    history[1][p] >>= 1;
+                }
+            }
+        }
+
+        // Stable insertion sort of the first n moves (at most 32) by descending score.
+        static void sortMoves(int[] pits, int[] scores, int n) {
+            for (int i = 1; i < n; i++) {
+                int p = pits[i];
+                int s = scores[i];
+                int j = i - 1;
+                while (j >= 0 && scores[j] < s) {
+                    pits[j+1] = pits[j];
+                    scores[j+1] = scores[j];
+                    j--;
+                }
+                pits[j+1] = p;
+                scores[j+1] = s;
+            }
+        }
+
+        static void shiftToFront(int[] arr, int i) {
+            int temp = arr[i];
+            for (int a = i; a > 0; a--) {
+                arr[a] = arr[a-1];
+            }
+            arr[0] = temp;
+        }
+
+        // Record pit as the best move at ply, followed by the best line below it.
+        void updatePv(int ply, int pit) {
+            int[] line = pvTable[ply];
+            line[ply] = pit;
+            if (ply + 1 < MAX_PLY) {
+                int end = pvLength[ply + 1];
+                System.arraycopy(pvTable[ply + 1], ply + 1, line, ply + 1, end - (ply + 1));
+                pvLength[ply] = end;
+            } else {
+                pvLength[ply] = ply + 1;
+            }
+        }
+
+        // Store a node's result in the table, unless the search was cut short by
+        // the timer, in which case the result is meaningless.
+        void storeResult(long key, int depth, int bound, int score, int bestPit) {
+            if (table != null && !this.isInterrupted()) {
+                table.store(key, depth, bound, score, bestPit);
+            }
+        }
+
+        // Use this to update the best move in a synchronized way so that we can
         // safely get the best move every time when the thread times out.
         synchronized void setMove(HusMove m) {
             bestMove = m;
@@ -243,17 +759,94 @@ public class AlphaBeta {
             return bestMove;
         }
 
-        synchronized void addPrunedBranches(int a) {
-            branchesPruned += a;
+        void addPrunedBranches(int a) {
+            pruned += a;
         }
-        
-        public synchronized int getPrunedBranches() {
+
+        // As of the last depth completed or abandoned.
+        public int getPrunedBranches() {
             return branchesPruned;
         }
 
-        public synchronized int getBranchingFactor() {
+        public int getBranchingFactor() {
             return branchingFactor;
         }
 
     }
+
+    // Lazy SMP: several SearchThreads search the same root at once and share
+    // one transposition table. The main thread is an ordinary SearchThread and
+    // reports the move. The helpers start one or two plies deeper, so that
+    // they are mostly a depth ahead of it and fill the table with results it
+    // is about to need; they share nothing else, so there is no locking.
+    public static class LazySmp {
+        private SearchThread main;
+        private SearchThread[] helpers;
+
+        // threads is the total number of search threads, including the main one.
+        public LazySmp(HusBoardState s, Functions.EvaluationFunction f, int id, int d,
+                TranspositionTable t, int threads) {
+            if (t == null) {
+                throw new IllegalArgumentException("Lazy SMP needs a shared transposition table");
+            }
+
+            main = new SearchThread(s, f, id, d, t);
+            helpers = new SearchThread[Math.max(threads, 1) - 1];
+
+            for (int i = 0; i < helpers.length; i++) {
+                helpers[i] = new SearchThread(s, f, id, d, t);
+                helpers[i].helper = true;
+                helpers[i].depthOffset = 1 + i % 2;
+            }
+        }
+
+        public void setSelectivity(Selectivity s) {
+            main.setSelectivity(s);
+            for (int i = 0; i < helpers.length; i++) {
+                helpers[i].setSelectivity(s);
+            }
+        }
+
+        public void start() {
+            main.start();
+            for (int i = 0; i < helpers.length; i++) {
+                helpers[i].start();
+            }
+        }
+
+        public void interrupt() {
+            main.interrupt();
+            for (int i = 0; i < helpers.length; i++) {
+                helpers[i].interrupt();
+            }
+        }
+
+        public void join() throws InterruptedException {
+            main.join();
+            for (int i = 0; i < helpers.length; i++) {
+                helpers[i].join();
+            }
+        }
+
+        public HusMove getMove() {
+            return main.getMove();
+        }
+
+        // Summed over all the threads.
+        public int getPrunedBranches() {
+            int total = main.getPrunedBranches();
+            for (int i = 0; i < helpers.length; i++) {
+                total += helpers[i].getPrunedBranches();
+            }
+            return total;
+        }
+
+        public int getBranchingFactor() {
+            return main.getBranchingFactor();
+        }
+
+        public int getNumThreads() {
+            return helpers.length + 1;
+        }
+    }
 }
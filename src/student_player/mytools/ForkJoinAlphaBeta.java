@@ -0,0 +1,382 @@
+package student_player.mytools;
+
+import hus.HusBoardState;
+import hus.HusMove;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+// Parallel alpha-beta on a ForkJoinPool using Young Brothers Wait: at each
+// node the eldest (best ordered) child is searched first, on its own, to get
+// a bound; only then are its younger brothers forked as tasks that run in
+// parallel with that bound. If one of them fails high, the others are aborted.
+//
+// Unlike AlphaBeta.LazySmp there is no shared table, so the value found at
+// each depth does not depend on thread timing. Useful as a baseline for how
+// far node throughput scales with cores.
+//
+// From the root directory of the project, after compiling into ``bin``:
+//
+//     java -cp bin student_player.mytools.ForkJoinAlphaBeta [ms] [threads]
+//
+// searches each perft position for ``ms`` milliseconds (default 1900) on
+// ``threads`` threads (default one per core) and reports the depth and nodes/second.
+public class ForkJoinAlphaBeta {
+    static final int MAX_DEPTH = 50;
+    static final int INFINITY = 1000000;
+    static final int WIN = 100000;
+
+    // Nodes with this little depth left are searched serially, since forking
+    // them costs more than it gains.
+    static final int SERIAL_DEPTH = 3;
+
+    // Shared by the children forked at one node. Setting aborted stops every
+    // task below it, which checks the whole chain up to the root.
+    static final class Split {
+        final Split parent;
+        volatile boolean aborted = false;
+
+        // Best value found at the node so far, read by younger brothers when
+        // they start, so that later ones get a narrower window.
+        volatile int alpha;
+
+        Split(Split p, int a) {
+            parent = p;
+            alpha = a;
+        }
+
+        boolean isAborted() {
+            for (Split s = this; s != null; s = s.parent) {
+                if (s.aborted) { return true; }
+            }
+            return false;
+        }
+    }
+
+    // Undo records and move lists for a task to search serially with,
+    // indexed by depth left. A worker can run another task while it waits
+    // on a join, so scratch space belongs to tasks, not threads; tasks take
+    // it from a pool and give it back when they finish.
+    static final class Scratch {
+        final HusBoardState.Undo[] undos = new HusBoardState.Undo[MAX_DEPTH + 1];
+        final int[][] pits = new int[MAX_DEPTH + 1][HusBoardState.PITS_PER_PLAYER];
+        final int[][] scores = new int[MAX_DEPTH + 1][HusBoardState.PITS_PER_PLAYER];
+
+        Scratch() {
+            for (int i = 0; i < undos.length; i++) {
+                undos[i] = new HusBoardState.Undo();
+            }
+        }
+    }
+
+    public static class SearchThread extends Thread {
+        private HusMove bestMove; // Always to be changed via the synchronized setter setMove.
+
+        private HusBoardState startingState;
+        private Functions.EvaluationFunction evalFunc;
+        private int myID;
+        private int startingDepth;
+        private int threads;
+        private volatile int depthReached = 0;
+
+        private volatile boolean stopped = false;
+        private final LongAdder nodes = new LongAdder();
+        private final ConcurrentLinkedQueue<Scratch> scratchPool = new ConcurrentLinkedQueue<Scratch>();
+
+        public SearchThread(HusBoardState s, Functions.EvaluationFunction f, int id, int d, int t) {
+            startingState = s;
+            evalFunc = f;
+            myID = id;
+            startingDepth = d;
+            threads = t;
+        }
+
+        // The search runs on pool threads, so stopping it takes more than
+        // interrupting this one.
+        public void interrupt() {
+            stopped = true;
+            super.interrupt();
+        }
+
+        public void run() {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+
+            try {
+                HusBoardState root = (HusBoardState) startingState.clone();
+                int[] rootPits = new int[root.getNumLegalMoves()];
+                orderMoves(root, rootPits, new int[rootPits.length], new HusBoardState.Undo(), 0);
+
+                for (int depth = startingDepth; depth < MAX_DEPTH && !stopped; depth++) {
+                    pool.invoke(new RootTask(root, rootPits, depth));
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        Scratch takeScratch() {
+            Scratch s = scratchPool.poll();
+            return s != null ? s : new Scratch();
+        }
+
+        void giveBack(Scratch s) {
+            scratchPool.offer(s);
+        }
+
+        // Searches the root with Young Brothers Wait like any other node, but
+        // reports each new best move as it is found, and keeps the root moves
+        // ordered with the best one first.
+        class RootTask extends RecursiveTask<Integer> {
+            private static final long serialVersionUID = 1L;
+
+            final HusBoardState root;
+            final int[] rootPits;
+            final int depth;
+
+            RootTask(HusBoardState r, int[] p, int d) {
+                root = r;
+                rootPits = p;
+                depth = d;
+            }
+
+            protected Integer compute() {
+                Scratch scratch = takeScratch();
+                Split split = new Split(null, -INFINITY);
+
+                root.make(rootPits[0], scratch.undos[depth]);
+                int alpha = -search(root, scratch, -INFINITY, INFINITY, depth - 1, 1, split);
+                root.unmake(scratch.undos[depth]);
+                giveBack(scratch);
+
+                if (stopped) { return 0; }
+                report(0, depth);
+
+                split.alpha = alpha;
+                ArrayList<NodeTask> tasks = new ArrayList<NodeTask>();
+                for (int i = 1; i < rootPits.length; i++) {
+                    tasks.add(NodeTask.forkChild(SearchThread.this, root, rootPits[i], INFINITY, depth - 1, 1, split));
+                }
+
+                int best = 0;
+                for (int i = 0; i < tasks.size(); i++) {
+                    int val = -tasks.get(i).join();
+                    if (!stopped && val > alpha) {
+                        alpha = val;
+                        split.alpha = val;
+                        best = i + 1;
+                    }
+                }
+
+                if (stopped) { return 0; }
+
+                if (best > 0) {
+                    int temp = rootPits[best];
+                    System.arraycopy(rootPits, 0, rootPits, 1, best);
+                    rootPits[0] = temp;
+                    report(0, depth);
+                }
+                depthReached = depth;
+                return alpha;
+            }
+
+            void report(int i, int depth) {
+                HusMove m = HusMove.getMove(rootPits[i], root.getTurnPlayer());
+                setMove(m);
+                System.out.println("Move updated: " + m.toPrettyString() + " at depth " + depth);
+            }
+        }
+
+        // Negamax alpha-beta on state, fail-soft, from the point of view of the
+        // player to move. state is restored on return. Returns garbage if
+        // split is aborted or the search is stopped, which callers check.
+        // Uses the entries of scratch for depth and below.
+        int search(HusBoardState state, Scratch scratch, int alpha, int beta,
+                int depth, int ply, Split split) {
+            if (stopped || split.isAborted()) { return 0; }
+
+            nodes.increment();
+
+            if (state.gameOver()) {
+                return terminalScore(state, ply);
+            }
+
+            int sign = state.getTurnPlayer() == myID ? 1 : -1;
+
+            if (depth == 0) {
+                return sign * evalFunc.compute(state);
+            }
+
+            int[] pits = scratch.pits[depth];
+            HusBoardState.Undo undo = scratch.undos[depth];
+            int n = orderMoves(state, pits, scratch.scores[depth], undo, ply);
+
+            // Eldest brother first, on this thread.
+            state.make(pits[0], undo);
+            int best = -search(state, scratch, -beta, -alpha, depth - 1, ply + 1, split);
+            state.unmake(undo);
+
+            // An aborted search returns garbage, so the brothers need not run.
+            if (stopped || split.isAborted()) { return 0; }
+
+            if (best > alpha) { alpha = best; }
+            if (alpha >= beta || n == 1) { return best; }
+
+            if (depth <= SERIAL_DEPTH) {
+                for (int i = 1; i < n; i++) {
+                    state.make(pits[i], undo);
+                    int val = -search(state, scratch, -beta, -alpha, depth - 1, ply + 1, split);
+                    state.unmake(undo);
+
+                    if (stopped || split.isAborted()) { return 0; }
+
+                    if (val > best) {
+                        best = val;
+                        if (val > alpha) { alpha = val; }
+                        if (alpha >= beta) { break; }
+                    }
+                }
+                return best;
+            }
+
+            // The younger brothers in parallel, each on its own copy of the state.
+            Split child = new Split(split, alpha);
+            NodeTask[] tasks = new NodeTask[n - 1];
+            for (int i = 1; i < n; i++) {
+                tasks[i - 1] = NodeTask.forkChild(this, state, pits[i], beta, depth - 1, ply + 1, child);
+            }
+
+            boolean cutoff = false;
+            for (int i = 0; i < tasks.length; i++) {
+                int val = -tasks[i].join();
+
+                // Once aborted, the remaining results are garbage.
+                if (cutoff) { continue; }
+
+                if (val > best) {
+                    best = val;
+                    if (val > alpha) {
+                        alpha = val;
+                        child.alpha = val;
+                    }
+                    if (alpha >= beta) {
+                        child.aborted = true;
+                        cutoff = true;
+                    }
+                }
+            }
+
+            return best;
+        }
+
+        // Score of a finished game for the player to move at the given ply.
+        // Shallower victories are better victories; anything other than a win
+        // for myID counts as a loss for it.
+        int terminalScore(HusBoardState state, int ply) {
+            int mover = (ply & 1) == 0 ? startingState.getTurnPlayer() : 1 - startingState.getTurnPlayer();
+            boolean moverWins = (state.getWinner() == myID) == (mover == myID);
+            return moverWins ? WIN - ply : -(WIN - ply);
+        }
+
+        // Fill pits with the legal moves of state, best first for the player to
+        // move by the evaluation of the state each one leads to.
+        int orderMoves(HusBoardState state, int[] pits, int[] scores, HusBoardState.Undo undo, int ply) {
+            int sign = state.getTurnPlayer() == myID ? 1 : -1;
+            int n = 0;
+
+            for (int legal = state.getLegalPitMask(); legal != 0; legal &= legal - 1, n++) {
+                pits[n] = Integer.numberOfTrailingZeros(legal);
+                state.make(pits[n], undo);
+                scores[n] = state.gameOver() ? -terminalScore(state, ply + 1) : sign * evalFunc.compute(state);
+                state.unmake(undo);
+            }
+
+            AlphaBeta.SearchThread.sortMoves(pits, scores, n);
+            return n;
+        }
+
+        // Use this to update the best move in a synchronized way so that we can
+        // safely get the best move every time when the thread times out.
+        synchronized void setMove(HusMove m) {
+            bestMove = m;
+        }
+
+        public synchronized HusMove getMove() {
+            return bestMove;
+        }
+
+        public long getNodes() {
+            return nodes.sum();
+        }
+
+        // Last depth searched to completion.
+        public int getDepthReached() {
+            return depthReached;
+        }
+    }
+
+    // Search of a younger brother: the child of parent reached by playing pit,
+    // on a copy of the state. The window is (alpha, beta) of the node that
+    // forked it, with alpha read from the split when the task starts.
+    static final class NodeTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        final SearchThread search;
+        final HusBoardState state;
+        final int beta;
+        final int depth;
+        final int ply;
+        final Split split;
+
+        NodeTask(SearchThread s, HusBoardState st, int b, int d, int p, Split sp) {
+            search = s;
+            state = st;
+            beta = b;
+            depth = d;
+            ply = p;
+            split = sp;
+        }
+
+        static NodeTask forkChild(SearchThread s, HusBoardState parent, int pit, int beta, int depth, int ply, Split split) {
+            HusBoardState child = (HusBoardState) parent.clone();
+            child.move(HusMove.getMove(pit, child.getTurnPlayer()));
+            NodeTask task = new NodeTask(s, child, beta, depth, ply, split);
+            task.fork();
+            return task;
+        }
+
+        protected Integer compute() {
+            int alpha = split.alpha;
+            if (alpha >= beta) { return -beta; } // A brother already failed high.
+
+            Scratch scratch = search.takeScratch();
+            int val = search.search(state, scratch, -beta, -alpha, depth, ply, split);
+            search.giveBack(scratch);
+            return val;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int ms = args.length > 0 ? Integer.parseInt(args[0]) : 1900;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        for (int p = 0; p < Perft.POSITIONS.length; p++) {
+            HusBoardState s = Perft.getPosition(Perft.POSITIONS[p]);
+            int id = s.getTurnPlayer();
+            Functions.EvaluationFunction f = new Functions.EvaluationFunctionFactory(id).getEvaluationFunction("basic");
+
+            SearchThread t = new SearchThread(s, f, id, 1, threads);
+            long start = System.nanoTime();
+            t.start();
+            Thread.sleep(ms);
+            t.interrupt();
+            t.join();
+            double time = (System.nanoTime() - start) / 1e9;
+
+            System.out.println(String.format("Position %d: depth %d, move %s, %d nodes (%.0f nodes/s)",
+                    p, t.getDepthReached(), t.getMove().toPrettyString(), t.getNodes(), t.getNodes() / time));
+        }
+    }
+}
@@ -51,39 +51,12 @@ public class Functions {
         }
 
         public int compare(HusBoardState o1, HusBoardState o2) {
-            int[][] lhs = o1.getPits();
-            int[][] rhs = o2.getPits();
-
-            int[] myPitsL = lhs[id];
-            int[] myPitsR = rhs[id];
-            int[] oppPitsL = lhs[(id + 1) % 2];
-            int[] oppPitsR = rhs[(id + 1) % 2];
-
-            int left = 0;
-            int right = 0;
-
-            for (int i = 0; i < myPitsL.length; i++) {
-                left += myPitsL[i];
-                left -= oppPitsL[i];
-
-                right += myPitsR[i];
-                right -= oppPitsR[i];
-            }
-
-            return (left - right);
+            return compute(o1) - compute(o2);
         }
 
+        // Seed totals are maintained by the board state, so this is O(1).
         public int compute(HusBoardState s) {
-            int[][] pits = s.getPits();
-            int[] my_pits = pits[id];
-            int[] opp_pits = pits[(id + 1) % 2];
-            int a = 0;
-            int b = 0;
-            for (int i = 0; i < my_pits.length; i++) {
-                a += my_pits[i];
-                b += opp_pits[i];
-            }
-            return (a - b);
+            return s.getSeedCount(id) - s.getSeedCount((id + 1) % 2);
         }
     }
 
@@ -110,17 +83,15 @@ public class Functions {
             int myScore = 0;
             int oppScore = 0;
 
-            int[][] pits = s.getPits();
-            int[] my_pits = pits[id];
-            int[] opp_pits = pits[(id + 1) % 2];
+            int opp = (id + 1) % 2;
 
             for (int i = 0; i < 16; i++) {
-                myScore += my_pits[i]*exteriorMultiplier;
-                oppScore += opp_pits[i]*exteriorMultiplier;
+                myScore += s.getNumSeeds(id, i)*exteriorMultiplier;
+                oppScore += s.getNumSeeds(opp, i)*exteriorMultiplier;
             }
             for (int j = 16; j < 32; j++) {
-                myScore += my_pits[j]*exteriorMultiplier;
-                oppScore += opp_pits[j]*exteriorMultiplier;
+                myScore += s.getNumSeeds(id, j)*exteriorMultiplier;
+                oppScore += s.getNumSeeds(opp, j)*exteriorMultiplier;
             }
             return Math.round(myScore-oppScore);
         }
@@ -128,9 +99,11 @@ public class Functions {
 
     static class BasicPlusBranchingFactor extends EvaluationFunction {
         int id;
+        EvaluationFunction basic;
 
         public BasicPlusBranchingFactor(int i) {
             id = i;
+            basic = new BasicEvaluationFunction(i);
         }
 
         public int compare(HusBoardState o1, HusBoardState o2) {
@@ -140,10 +113,9 @@ public class Functions {
         }
 
         public int compute(HusBoardState s) {
-            EvaluationFunction f = new BasicEvaluationFunction(id);
-            int ret = f.compute(s);
+            int ret = basic.compute(s);
             if (s.getTurnPlayer() == id) {
-                ret += s.getLegalMoves().size();
+                ret += s.getNumLegalMoves();
             }
             return (int) Math.floor(ret);
         }
@@ -159,69 +131,17 @@ public class Functions {
         }
 
         public int compare(HusBoardState o1, HusBoardState o2) {
-            int alignmentBonus = 1;
-            int myScore = 0;
-            int oppScore = 0;
-
-            int[][] pits = o1.getPits();
-            int[] my_pits = pits[id];
-            int[] opp_pits = pits[(id + 1) % 2];
-
-            for (int i = 0; i < my_pits.length; i++) {
-                if (i < 16 && my_pits[i] == 0 && my_pits[31-i] == 0) {
-                    myScore -= alignmentBonus;
-                }
-                if (i < 16 && opp_pits[i] == 0 && opp_pits[31-i] == 0) {
-                    myScore += alignmentBonus;
-                }
-                myScore += my_pits[i];
-                oppScore += opp_pits[i];
-            }
-
-            int left = myScore - oppScore;
-
-            int[][] pits2 = o2.getPits();
-            int[] my_pits2 = pits2[id];
-            int[] opp_pits2 = pits2[(id + 1) % 2];
-            int myScore2 = 0;
-            int oppScore2 = 0;
-
-            for (int j = 0; j < my_pits2.length; j++) {
-                if (j < 16 && my_pits2[j] == 0 && my_pits2[31-j] == 0) {
-                    oppScore2 += alignmentBonus;
-                }
-                if (j < 16 && opp_pits2[j] == 0 && opp_pits2[31-j] == 0) {
-                    myScore2 += alignmentBonus;
-                }
-                myScore2 += my_pits2[j];
-                oppScore2 += opp_pits2[j];
-            }
-
-            int right = myScore2 - oppScore2;
-
-            return left-right;
+            return compute(o1) - compute(o2);
         }
 
-        // For a pit N, the pit vertically aligned with it is 35-N.
+        // For a pit N, the pit vertically aligned with it is 31-N.
+        // Empty aligned pairs are counted by the board state, so this is O(1).
         public int compute(HusBoardState s) {
             int alignmentBonus = 1;
-            int myScore = 0;
-            int oppScore = 0;
+            int opp = (id + 1) % 2;
 
-            int[][] pits = s.getPits();
-            int[] my_pits = pits[id];
-            int[] opp_pits = pits[(id + 1) % 2];
-
-            for (int i = 0; i < my_pits.length; i++) {
-                if (i < 16 && my_pits[i] == 0 && my_pits[31-i] == 0) {
-                    oppScore += alignmentBonus;
-                }
-                if (i < 16 && opp_pits[i] == 0 && opp_pits[31-i] == 0) {
-                    myScore += alignmentBonus;
-                }
-                myScore += my_pits[i];
-                oppScore += opp_pits[i];
-            }
+            int myScore = s.getSeedCount(id) + alignmentBonus * s.getEmptyAlignedPairs(opp);
+            int oppScore = s.getSeedCount(opp) + alignmentBonus * s.getEmptyAlignedPairs(id);
 
             return myScore-oppScore;
         }
@@ -16,11 +16,10 @@ public class Minimax {
     // Input: HusBoardState state, int d
     // Output: MinimaxNode root
     public static MinimaxNode makeMinimaxTree(HusBoardState s, int id, int depth) {
-        Iterator<HusMove> a = s.getLegalMoves().iterator();
         MinimaxNode root = new MinimaxNode(NodeType.MAX, s, id);
 
-        while (a.hasNext()) {
-            HusMove m = a.next();
+        for (int legal = s.getLegalPitMask(); legal != 0; legal &= legal - 1) {
+            HusMove m = HusMove.getMove(Integer.numberOfTrailingZeros(legal), s.getTurnPlayer());
             HusBoardState newState = (HusBoardState) s.clone();
             newState.move(m);
             MinimaxNode child = new MinimaxNode(NodeType.MIN, newState, m, id);
@@ -36,11 +35,10 @@ public class Minimax {
         if (depth == 0) { return; }
 
         HusBoardState s = node.getState();
-        Iterator<HusMove> it = s.getLegalMoves().iterator();
         NodeType t = node.getType();
 
-        while (it.hasNext()) {
-            HusMove m = it.next();
+        for (int legal = s.getLegalPitMask(); legal != 0; legal &= legal - 1) {
+            HusMove m = HusMove.getMove(Integer.numberOfTrailingZeros(legal), s.getTurnPlayer());
             HusBoardState ns = (HusBoardState) s.clone();
             ns.move(m);
 
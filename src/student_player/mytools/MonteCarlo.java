@@ -6,306 +6,694 @@ import hus.HusMove;
 
 import java.util.Arrays;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import student_player.mytools.Functions;
 
 public class MonteCarlo {
-    public static class MonteCarloNode {
-        public int numerator = 0;
-        public int denominator = 0; 
-        static int myID = 0;
 
-        static Comparator<MonteCarloNode> ucb = new UCBComparator();
-
-        private HusBoardState state;
-        ArrayList<MonteCarloNode> children = new ArrayList<MonteCarloNode>();
-        public MonteCarloNode parent;
-        private HashMap<HusBoardState, HusMove> nodeMap = new HashMap<HusBoardState, HusMove>();
+    // The search tree, stored as parallel arrays indexed by node number in a
+    // fixed-size arena instead of as node objects. Node 0 is the root. The
+    // children of a node are a contiguous block of nodes starting at
+    // firstChild. Nodes do not store board states: a search replays the pits
+    // from the root down to reach the state of a node.
+    //
+    // Any number of threads may grow the same tree. Statistics are atomic
+    // counters, and a node is expanded by reserving a block of the arena
+    // with an atomic add, filling it in, and publishing it with a
+    // compare-and-set on firstChild.
+    //
+    // The tree is also an MCTS-Solver: games won by either side are proven
+    // wins or losses, and so is a node with a child that is a proven win for
+    // the player to move, or with only children that are proven losses.
+    // Draws and cancelled games are never proven. Proven nodes are never
+    // sampled again. A proof never changes once made, so threads write flags
+    // without synchronizing; one that reads a stale flag only wastes an
+    // iteration.
+    public static class Tree {
+        static final int ROOT = 0;
+        static final int UNEXPANDED = -1;
+
+        // Wins are counted in fixed point with WIN_FRACTION_BITS fractional
+        // bits, so that rollouts can back up partial wins. A whole win is ONE.
+        static final int WIN_FRACTION_BITS = 12;
+        static final long ONE = 1L << WIN_FRACTION_BITS;
+
+        // The root has the most visits in the tree, so searches stop once it
+        // gets near MAX_VISITS, leaving room for iterations still running on
+        // other threads, and no count can overflow.
+        static final int MAX_VISITS = Integer.MAX_VALUE - (1 << 20);
+
+        // Flags of a node whose value is proven, and of one whose state is a
+        // finished game, which is proven too if someone won it.
+        static final byte PROVEN = 1;
+        static final byte WON = 2; // The proven value is a win for myID.
+        static final byte TERMINAL = 4;
+
+        // Bytes per node, for sizing the arena, counting the index compact
+        // may need.
+        static final int NODE_BYTES = 8 + 4 + 4 + 3 + 4;
+
+        // A visit is counted before the wins it brings, and readers read wins
+        // first, so wins never look larger than the visits allow.
+        final AtomicLongArray wins;
+        final AtomicIntegerArray visits;
+        final AtomicIntegerArray firstChild;
+        final byte[] childCount;
+        final byte[] pits; // Pit played to reach each node.
+        final byte[] flags;
+        final AtomicInteger size = new AtomicInteger(1);
+
+        // New index of each node, kept between calls to compact.
+        private int[] index = new int[0];
+
+        final HusBoardState rootState;
+        final int myID;
+
+        public Tree(HusBoardState root, int id, int capacity) {
+            rootState = (HusBoardState) root.clone();
+            myID = id;
+
+            wins = new AtomicLongArray(capacity);
+            visits = new AtomicIntegerArray(capacity);
+            firstChild = new AtomicIntegerArray(capacity);
+            childCount = new byte[capacity];
+            pits = new byte[capacity];
+            flags = new byte[capacity];
+
+            firstChild.set(ROOT, UNEXPANDED);
+            pits[ROOT] = -1;
+        }
 
-        boolean isMax;
+        // Largest tree that fits in the given fraction of the maximum heap.
+        public static Tree sizedForHeap(HusBoardState root, int id, double fraction) {
+            long bytes = (long) (Runtime.getRuntime().maxMemory() * fraction);
+            return new Tree(root, id, (int) Math.min(bytes / NODE_BYTES, Integer.MAX_VALUE - 64));
+        }
 
-        public MonteCarloNode(HusBoardState s, boolean b) {
-            state = s;
-            isMax = b;
+        public HusBoardState getRootState() {
+            return rootState;
         }
 
-        public MonteCarloNode(HusBoardState s, boolean b, int i) {
-            state = s;
-            isMax = b;
-            myID = i;
-            ArrayList<HusMove> arr = s.getLegalMoves();
-            for (int a = 0; a < arr.size(); a++) {
-                HusBoardState newS = (HusBoardState) s.clone();
-                HusMove m = arr.get(a);
-                newS.move(m);
+        // Discard the whole tree and start over from s.
+        public void reset(HusBoardState s) {
+            rootState.copyFrom(s);
+            size.set(1);
+            wins.set(ROOT, 0);
+            visits.set(ROOT, 0);
+            firstChild.set(ROOT, UNEXPANDED);
+            childCount[ROOT] = 0;
+            flags[ROOT] = 0;
+        }
 
-                MonteCarloNode n = new MonteCarloNode(newS, false);
-                n.parent = this;
-                children.add(n);
+        // Advance the root by the move in pit, keeping the subtree of the
+        // child it leads to, statistics and proofs included, and freeing the
+        // rest of the arena. Starts over if the tree has no such child. No
+        // search may be running on the tree.
+        public void play(int pit) {
+            int first = firstChild.get(ROOT);
+            int child = -1;
+            for (int i = first; first != UNEXPANDED && i < first + childCount[ROOT]; i++) {
+                if (pits[i] == pit) {
+                    child = i;
+                }
+            }
 
-                nodeMap.put(newS, m);
+            HusBoardState next = (HusBoardState) rootState.clone();
+            next.move(HusMove.getMove(pit, next.getTurnPlayer()));
+            if (child < 0) {
+                reset(next);
+                return;
             }
+            rootState.copyFrom(next);
+            compact(child);
         }
 
-        public static class UCBComparator implements Comparator<MonteCarloNode> {
-            static double c = 1.5;
+        // Slide the subtree of node down to the start of the arena, with node
+        // as the root. Children are always stored after their parent, so one
+        // forward pass finds the whole subtree, and kept nodes keep their
+        // order, so each moves down over nodes already dealt with and
+        // sibling blocks stay contiguous.
+        void compact(int node) {
+            int end = size();
+            if (index.length < end) {
+                index = new int[(int) Math.min(2L * end, capacity())];
+            }
+            Arrays.fill(index, node, end, -1);
+            index[node] = 0;
 
-            public int compare(MonteCarloNode o1, MonteCarloNode o2) {
-                MonteCarloNode parent1 = o1.parent;
-                MonteCarloNode parent2 = o2.parent;
+            int n = 0;
+            for (int i = node; i < end; i++) {
+                if (index[i] < 0) {
+                    continue; // Not in the subtree.
+                }
+                index[i] = n++;
 
-                int parent1Visits = parent1.denominator;
-                int parent2Visits = parent2.denominator;
+                int first = firstChild.get(i);
+                for (int c = first; first != UNEXPANDED && c < first + childCount[i]; c++) {
+                    index[c] = 0;
+                }
+            }
 
-                int o1Num = o1.numerator;
-                int o2Num = o2.numerator;
+            for (int i = node; i < end; i++) {
+                int j = index[i];
+                if (j < 0) {
+                    continue;
+                }
 
-                int o1Den = o1.denominator;
-                int o2Den = o2.denominator;
+                int first = firstChild.get(i);
+                wins.set(j, wins.get(i));
+                visits.set(j, visits.get(i));
+                firstChild.set(j, first == UNEXPANDED ? UNEXPANDED : index[first]);
+                childCount[j] = childCount[i];
+                pits[j] = pits[i];
+                flags[j] = flags[i];
+            }
 
-                double o1Value;
-                double o2Value;
+            pits[ROOT] = -1;
+            size.set(n);
+        }
 
-                if (o1Den == 0) {
-                    o1Value = 0;
-                } else {
-                    o1Value = (double) o1Num / o1Den;
-                }
+        public int capacity() {
+            return childCount.length;
+        }
 
-                if (o2Den == 0) {
-                    o2Value = 0;
-                } else {
-                    o2Value = (double) o2Num / o2Den;
-                }
+        // Number of nodes in use.
+        public int size() {
+            return Math.min(size.get(), capacity());
+        }
 
-                int o1Visits = o1.denominator;
-                int o2Visits = o2.denominator;
+        public int getVisits(int node) {
+            return visits.get(node);
+        }
 
-                double o1UCB;
-                double o2UCB;
+        // Wins of myID through the node, possibly fractional.
+        public double getWins(int node) {
+            return (double) wins.get(node) / ONE;
+        }
 
-                if (o1Visits == 0) {
-                    o1UCB = Double.POSITIVE_INFINITY;
-                } else {
-                    o1UCB = o1Value + (c * Math.sqrt(Math.log(parent1Visits)/o1Visits));
-                }
+        public boolean isProven(int node) {
+            return (flags[node] & PROVEN) != 0;
+        }
 
-                if (o2Visits == 0) {
-                    o2UCB = Double.POSITIVE_INFINITY;
-                } else {
-                    o2UCB = o2Value + (c * Math.sqrt(Math.log(parent2Visits)/o2Visits));
-                }
+        // Whether the node is a proven win for myID; meaningless unless proven.
+        public boolean isWon(int node) {
+            return (flags[node] & WON) != 0;
+        }
+
+        void setProven(int node, boolean won, boolean terminal) {
+            flags[node] = (byte) (PROVEN | (won ? WON : 0) | (terminal ? TERMINAL : 0));
+        }
 
-                if (o1UCB == o2UCB) {
-                    return 0;
-                } else if (o1UCB < o2UCB) {
-                    return -1;
-                } else {
-                    return 1;
+        // Prove node from its children if they decide it, for the player to
+        // move at node, who is myID if isMax. Returns whether node is proven.
+        boolean prove(int node, boolean isMax) {
+            int first = firstChild.get(node);
+            if (first == UNEXPANDED) {
+                return false;
+            }
+
+            boolean undecided = false;
+            for (int i = first; i < first + childCount[node]; i++) {
+                if (!isProven(i)) {
+                    undecided = true;
+                } else if (isWon(i) == isMax) {
+                    setProven(node, isMax, false); // The mover has a winning move.
+                    return true;
                 }
             }
+            if (!undecided) {
+                setProven(node, !isMax, false); // Every move loses for the mover.
+            }
+            return !undecided;
         }
 
-        // Performs one iteration of MCTS.
-        public static boolean simulate(MonteCarloNode currentNode, Comparator<HusBoardState> c) {
-            if (currentNode.children.isEmpty()) {
-                // Generate moves using c.
-                
-                HusBoardState startingState = currentNode.getState();
-                ArrayList<HusMove> moveList = currentNode.getState().getLegalMoves();
-                HusBoardState[] stateArray = new HusBoardState[moveList.size()];
+        // Give node the children of state s, unless another thread got there
+        // first. Returns the first child, or UNEXPANDED if the arena is full.
+        int expand(int node, HusBoardState s) {
+            int legal = s.getLegalPitMask();
+            int n = Integer.bitCount(legal);
 
-                for (int i = 0; i < stateArray.length; i++) {
-                    HusBoardState newState = (HusBoardState) startingState.clone();
-                    HusMove m = moveList.get(i);
-                    newState.move(m);
+            // Checked first too, so that size stops growing once the arena is full.
+            if (size.get() + n > capacity()) {
+                return UNEXPANDED;
+            }
+            int start = size.getAndAdd(n);
+            if (start + n > capacity()) {
+                return UNEXPANDED;
+            }
 
-                    stateArray[i] = newState;
-                }
+            // The block may hold nodes freed by compact or reset.
+            for (int i = start; legal != 0; i++, legal &= legal - 1) {
+                pits[i] = (byte) Integer.numberOfTrailingZeros(legal);
+                wins.set(i, 0);
+                visits.set(i, 0);
+                firstChild.set(i, UNEXPANDED);
+                childCount[i] = 0;
+                flags[i] = 0;
+            }
+            childCount[node] = (byte) n;
 
-                if (currentNode.isMax) {
-                    Arrays.sort(stateArray, c.reversed());
-                } else {
-                    Arrays.sort(stateArray, c);
+            // If another thread won, its block is used and ours is wasted.
+            if (firstChild.compareAndSet(node, UNEXPANDED, start)) {
+                return start;
+            }
+            return firstChild.get(node);
+        }
+
+        // The child with the highest UCB1 value for the player to move at node,
+        // who is myID if isMax. Unvisited children come first. A single scan,
+        // no sorting. A child proven to win for the mover is taken at once,
+        // and ones proven to lose are skipped.
+        int select(int node, boolean isMax, double c) {
+            int first = firstChild.get(node);
+            int end = first + childCount[node];
+            double logVisits = Math.log(Math.max(getVisits(node), 1));
+
+            int best = first;
+            double bestValue = Double.NEGATIVE_INFINITY;
+
+            for (int i = first; i < end; i++) {
+                if (isProven(i)) {
+                    if (isWon(i) == isMax) {
+                        return i;
+                    }
+                    continue;
                 }
 
-                HusBoardState optState = stateArray[0];
+                long w = wins.get(i);
+                int n = visits.get(i);
 
-                MonteCarloNode chosenNode;
+                if (n == 0) {
+                    return i;
+                }
 
-                if (currentNode.isMax) {
-                    if (optState.gameOver()) {
-                        if (optState.getWinner() == myID) {
-                            return true;
-                        } else {
-                            System.out.println("Something went wrong. Lost when you shouldn't have.");
-                            return false;
-                        }
-                    }
-                    chosenNode = new MonteCarloNode(optState, false);
-                } else {
-                    if (optState.gameOver()) {
-                        if (optState.getWinner() != myID) {
-                            return false;
-                        } else {
-                            System.out.println("Something went wrong. Won when you shouldn't have.");
-                            return true;
-                        }
-                    }
-                    chosenNode = new MonteCarloNode(optState, true);
+                double value = (double) w / ONE / n;
+                if (!isMax) {
+                    value = 1 - value;
                 }
+                value += c * Math.sqrt(logVisits / n);
 
-                chosenNode.parent = currentNode;
-                boolean win = heavyRollout(chosenNode, c);
-                currentNode.children.add(chosenNode);
-                if (win) {
-                    currentNode.numerator += 1;
-                    currentNode.denominator += 1;
-                    chosenNode.numerator += 1;
-                    chosenNode.denominator += 1;
-                    return true;
-                } else {
-                    currentNode.denominator += 1;
-                    chosenNode.denominator += 1;
-                    return false;
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = i;
                 }
-            } else {
-                // choose node descentNode using UCB comparator
-                ArrayList<MonteCarloNode> nodeList = currentNode.children;
-                if (currentNode.isMax) {
-                    nodeList.sort(ucb.reversed());
-                } else {
-                    nodeList.sort(ucb);
+            }
+            return best;
+        }
+
+        // Add a visit with virtualWin wins, to be corrected by backUp.
+        void addVirtualLoss(int node, long virtualWin) {
+            visits.incrementAndGet(node);
+            if (virtualWin != 0) {
+                wins.addAndGet(node, virtualWin);
+            }
+        }
+
+        // Replace the virtual loss with the real result; the visit stays.
+        void backUp(int node, long virtualWin, long result) {
+            if (result != virtualWin) {
+                wins.addAndGet(node, result - virtualWin);
+            }
+        }
+
+        // A child of the root proven to win for myID if there is one, or else
+        // the most visited child not proven to lose, or -1 if the root has
+        // no children yet.
+        int bestChild() {
+            int first = firstChild.get(ROOT);
+            if (first == UNEXPANDED) {
+                return -1;
+            }
+
+            int best = first;
+            for (int i = first; i < first + childCount[ROOT]; i++) {
+                if (isProven(i) && isWon(i)) {
+                    return i;
                 }
-                MonteCarloNode optNode = nodeList.get(0);
-                boolean win = simulate(optNode, c);
-                if (win) {
-                    currentNode.numerator += 1;
-                    currentNode.denominator += 1;
-                    return true;
-                } else {
-                    currentNode.denominator += 1;
-                    return false;
+                boolean bestLost = isProven(best) && !isWon(best);
+                boolean lost = isProven(i) && !isWon(i);
+                if (bestLost && !lost || bestLost == lost && getVisits(i) > getVisits(best)) {
+                    best = i;
                 }
             }
+            return best;
         }
 
-        static boolean heavyRollout(MonteCarloNode startNode, Comparator<HusBoardState> c) {
-            HusBoardState startState = startNode.getState();
+        // Pit of a child of the root proven to win for myID, or -1.
+        int provenMove() {
+            int first = firstChild.get(ROOT);
+            for (int i = first; first != UNEXPANDED && i < first + childCount[ROOT]; i++) {
+                if (isProven(i) && isWon(i)) {
+                    return pits[i];
+                }
+            }
+            return -1;
+        }
 
-            // Check for victory/loss state.
-            if (startState.gameOver()) {
-                if (startState.getWinner() == myID) {
-                    return true;
-                } else {
-                    return false;
+        // Mark the pit of each child of the root proven to lose for myID.
+        void addProvenLosses(boolean[] lost) {
+            int first = firstChild.get(ROOT);
+            for (int i = first; first != UNEXPANDED && i < first + childCount[ROOT]; i++) {
+                if (isProven(i) && !isWon(i)) {
+                    lost[pits[i]] = true;
                 }
             }
+        }
 
-            ArrayList<HusMove> moves = startState.getLegalMoves();
-            HusBoardState[] candidateStates = new HusBoardState[moves.size()];
+        // Falls back to a random move if the root was never expanded.
+        public HusMove getBestMove() {
+            int best = bestChild();
+            if (best < 0) {
+                System.out.println("No root stats, playing a random move.");
+                return (HusMove) rootState.getRandomMove();
+            }
+            System.out.println("Got best move with score: " + getWins(best) + "/" + getVisits(best));
+            return HusMove.getMove(pits[best], rootState.getTurnPlayer());
+        }
 
-            for (int i = 0; i < moves.size(); i++) {
-                HusBoardState nextState = (HusBoardState) startState.clone();
-                HusMove candidateMove = moves.get(i);
-                nextState.move(candidateMove);
+        // Add the wins and visits of each child of the root to the entries for
+        // the pit played to reach it.
+        void addRootStats(double[] wins, int[] visits) {
+            int first = firstChild.get(ROOT);
+            for (int i = first; first != UNEXPANDED && i < first + childCount[ROOT]; i++) {
+                wins[pits[i]] += getWins(i);
+                visits[pits[i]] += getVisits(i);
+            }
+        }
 
-                candidateStates[i] = nextState;
+        public void printRootStats() {
+            int first = firstChild.get(ROOT);
+            String s = "";
+            for (int i = first; first != UNEXPANDED && i < first + childCount[ROOT]; i++) {
+                s += " ";
+                s += isProven(i) ? (isWon(i) ? "won" : "lost") : Math.round(getWins(i)) + "/" + getVisits(i);
             }
 
-            MonteCarloNode nextNode;
+            System.out.println("Top level stats are: " + s + " (" + size() + " nodes)");
+        }
+    }
+
+    public static class SearchThread extends Thread {
+        // Exploration constant of UCB1.
+        static double c = 1.5;
 
-            if (startNode.isMax) {
-                Arrays.sort(candidateStates, c.reversed());
-                nextNode = new MonteCarloNode(candidateStates[0], false);
-            } else { //isMin
-                Arrays.sort(candidateStates, c);
-                nextNode = new MonteCarloNode(candidateStates[0], true);
-            }
+        private Tree tree;
+        private int myID;
+        private Playout playout;
+        private boolean shared = false; // Whether other threads grow the same tree.
+
+        // State of the node being visited, replayed from the root every iteration.
+        private HusBoardState board;
 
-            return heavyRollout(nextNode, c);
+        // Nodes on the current path, with the virtual wins each was given.
+        private int[] path = new int[64];
+        private long[] virtualWins = new long[64];
+        private int pathLength;
+
+        // Rollouts are the original heavy ones: always the move f likes best.
+        public SearchThread(HusBoardState s, Functions.EvaluationFunction f, int i) {
+            this(s, i, new Playout.EpsilonGreedy(f, i, 0), new SplittableRandom());
         }
 
-        // Builds path down to a leaf node.
-        ArrayList<MonteCarloNode> getFrontierPath(MonteCarloNode firstChild, Comparator<HusBoardState> c, boolean isExploration) {
+        // Rollouts choose moves with policy p, drawing from rng, which only
+        // this thread may use.
+        public SearchThread(HusBoardState s, int i, Playout.Policy p, SplittableRandom r) {
+            this(Tree.sizedForHeap(s, i, 0.25), p, r);
+            shared = false;
+        }
 
-            ArrayList<MonteCarloNode> returnPath = new ArrayList<MonteCarloNode>();
-            MonteCarloNode currentNode = firstChild;
+        // A worker on a tree that other threads may also be growing.
+        SearchThread(Tree t, Playout.Policy p, SplittableRandom r) {
+            tree = t;
+            myID = t.myID;
+            playout = new Playout(p, r, myID);
+            shared = true;
+            board = (HusBoardState) t.rootState.clone();
+        }
 
-            // Tree policy.
-            // Might want to probabilistically weight these because we might end up always choosing
-            // the same path. Test this.
-            if (isExploration) {
-                // BFS to find shortest path and then return
-            } else {
-                while (!currentNode.children.isEmpty()) {
-                    returnPath.add(currentNode);
+        // Stops early once the root is proven, or has as many visits as the
+        // counters can take.
+        public void run() {
+            while (!this.isInterrupted() && !tree.isProven(Tree.ROOT)
+                    && tree.getVisits(Tree.ROOT) < Tree.MAX_VISITS) {
+                simulate();
+            }
+            if (!shared) { tree.printRootStats(); }
+        }
+
+        // Performs one iteration of MCTS: select a path down the tree by UCB,
+        // expand the node at its end, play a rollout from one of the new children
+        // and back the result up the path. A path that ends at a proven node
+        // backs up its proven value instead, and tries to prove the nodes
+        // above it.
+        //
+        // Every node on the path gets a virtual loss as it is selected: a visit
+        // that, until the result is backed up, counts as a loss for the player
+        // who chose the node. Other threads selecting at the same time are
+        // therefore steered onto different paths.
+        void simulate() {
+            board.copyFrom(tree.rootState);
+            pathLength = 0;
+
+            int node = Tree.ROOT;
+            long virtualWin = 0;
+            long result;
+
+            while (true) {
+                tree.addVirtualLoss(node, virtualWin);
+                push(node, virtualWin);
+
+                if (board.gameOver()) {
+                    int winner = board.getWinner();
+                    if (winner != myID && winner != 1 - myID) {
+                        // A draw or a cancelled game is over, but proves
+                        // nothing: the side to move may have a better reply.
+                        // Scored like a rollout that ended here.
+                        tree.flags[node] = Tree.TERMINAL;
+                        result = Math.round(Playout.score(board, myID) * Tree.ONE);
+                        break;
+                    }
+                    tree.setProven(node, winner == myID, true);
+                }
+                if (tree.isProven(node)) {
+                    result = tree.isWon(node) ? Tree.ONE : 0;
+                    break;
+                }
 
-                    if (currentNode.isMax) {
-                    } else { // isMin
+                // A virtual loss is no win if myID is choosing, a whole one if
+                // the opponent is.
+                boolean isMax = board.getTurnPlayer() == myID;
+                long childVirtualWin = isMax ? 0 : Tree.ONE;
+
+                if (tree.firstChild.get(node) == Tree.UNEXPANDED) {
+                    if (tree.expand(node, board) == Tree.UNEXPANDED) {
+                        // The arena is full, so play out from here instead.
+                        result = rollout();
+                        break;
                     }
-                    currentNode = currentNode.children.get(0);
+
+                    int child = tree.select(node, isMax, c);
+                    board.move(HusMove.getMove(tree.pits[child], board.getTurnPlayer()));
+                    tree.addVirtualLoss(child, childVirtualWin);
+                    push(child, childVirtualWin);
+                    result = rollout();
+                    break;
                 }
+
+                node = tree.select(node, isMax, c);
+                board.move(HusMove.getMove(tree.pits[node], board.getTurnPlayer()));
+                virtualWin = childVirtualWin;
+            }
+
+            for (int i = 0; i < pathLength; i++) {
+                tree.backUp(path[i], virtualWins[i], result);
             }
 
-            return returnPath;
+            // Players alternate, so whether myID is to move at a node on the
+            // path only depends on its depth.
+            boolean rootIsMax = tree.rootState.getTurnPlayer() == myID;
+            for (int i = pathLength - 1; i > 0 && tree.isProven(path[i]); i--) {
+                if (!tree.prove(path[i - 1], rootIsMax == ((i - 1) % 2 == 0))) {
+                    break;
+                }
+            }
         }
 
+        private void push(int node, long virtualWin) {
+            if (pathLength == path.length) {
+                path = Arrays.copyOf(path, 2 * path.length);
+                virtualWins = Arrays.copyOf(virtualWins, 2 * virtualWins.length);
+            }
+            path[pathLength] = node;
+            virtualWins[pathLength] = virtualWin;
+            pathLength++;
+        }
 
-        public synchronized HusMove getBestMove() {
-            children.sort(ucb.reversed());
-            System.out.println("Got best move with score: " + children.get(0).numerator + "/" + children.get(0).denominator);
-            return nodeMap.get(children.get(0).getState());
+        // Result of a playout from the board, as a fixed point win for myID.
+        // The board is played out in place.
+        long rollout() {
+            return Math.round(playout.run(board) * Tree.ONE);
         }
 
-        HusBoardState getState() {
-            return state;
+        // Cut rollouts short at h; null plays them to the end of the game.
+        // Set before the thread starts.
+        public void setHorizon(Playout.Horizon h) {
+            playout.setHorizon(h);
         }
 
-        public void printRootStats() {
-            String s = "";
-            for (int a = 0; a < children.size(); a++) {
-                s += " ";
-                s += children.get(a).numerator + "/" + children.get(a).denominator;
-            }
+        Tree getTree() {
+            return tree;
+        }
 
-            System.out.println("Top level stats are: " + s);
+        public HusMove getMove() {
+            return tree.getBestMove();
         }
     }
 
-    public static class SearchThread extends Thread {
-        private MonteCarloNode rootNode;
-        private HusBoardState rootState;
-        private Comparator<HusBoardState> comparator;
-        private int myID;
+    // Root parallel MCTS: K SearchThreads grow independent trees from the same
+    // root, each with its own random generator, and share nothing while they
+    // run. When the search is stopped, the statistics of the root's children
+    // are summed over the trees, and the move with the most visits (or wins)
+    // is played.
+    public static class RootParallel {
+        public enum Merge { VISITS, WINS }
 
-        private HusMove bestMove;
+        private HusBoardState rootState;
+        private SearchThread[] threads;
+        private Merge merge;
 
-        public SearchThread(HusBoardState s, Comparator<HusBoardState> c, int i) {
+        // The policy should be random at least in part, or the trees will all
+        // be the same.
+        public RootParallel(HusBoardState s, int id, int k, Merge m, Playout.Policy p, long seed) {
             rootState = s;
-            comparator = c;
-            myID = i;
+            merge = m;
+            threads = new SearchThread[Math.max(k, 1)];
+
+            // The trees split a quarter of the heap between them.
+            SplittableRandom master = new SplittableRandom(seed);
+            for (int i = 0; i < threads.length; i++) {
+                Tree tree = Tree.sizedForHeap(s, id, 0.25 / threads.length);
+                threads[i] = new SearchThread(tree, p, master.split());
+            }
         }
 
-        public void run() {
-            rootNode = new MonteCarloNode(rootState, true, myID);
-            while (!this.isInterrupted()) {
-                MonteCarloNode.simulate(rootNode, comparator);
+        public void setHorizon(Playout.Horizon h) {
+            for (int i = 0; i < threads.length; i++) {
+                threads[i].setHorizon(h);
             }
-            rootNode.printRootStats();
         }
 
-        synchronized void setMove(HusMove m) {
-            if (m != null && getMove() != m) {
-                bestMove = m;
-            } 
+        public void start() {
+            for (int i = 0; i < threads.length; i++) {
+                threads[i].start();
+            }
+        }
+
+        public void interrupt() {
+            for (int i = 0; i < threads.length; i++) {
+                threads[i].interrupt();
+            }
         }
 
+        // Stop every tree, wait for their current iterations to finish, and
+        // return the best move by the merged statistics.
+        public HusMove getMove() throws InterruptedException {
+            interrupt();
+
+            double[] wins = new double[32];
+            int[] visits = new int[32];
+            boolean[] lost = new boolean[32];
+            int proven = -1;
+            for (int i = 0; i < threads.length; i++) {
+                threads[i].join();
+                threads[i].getTree().addRootStats(wins, visits);
+                threads[i].getTree().addProvenLosses(lost);
+                proven = Math.max(proven, threads[i].getTree().provenMove());
+            }
+
+            // A move that any tree proved wins beats any statistics.
+            if (proven >= 0) {
+                System.out.println("Proven win in " + threads.length + " trees");
+                return HusMove.getMove(proven, rootState.getTurnPlayer());
+            }
+
+            // Neither may a move that any tree proved loses win the merge,
+            // unless every move has been proved to lose.
+            int best = -1;
+            for (int pass = 0; pass < 2 && best < 0; pass++) {
+                for (int pit = 0; pit < 32; pit++) {
+                    if (visits[pit] > 0 && (pass == 1 || !lost[pit]) && (best < 0 || (merge == Merge.WINS
+                            ? wins[pit] > wins[best] : visits[pit] > visits[best]))) {
+                        best = pit;
+                    }
+                }
+            }
+
+            if (best < 0) {
+                System.out.println("No root stats in any tree, playing a random move.");
+                return (HusMove) rootState.getRandomMove();
+            }
+
+            System.out.println("Merged " + threads.length + " trees: " + Math.round(wins[best]) + "/" + visits[best]);
+            return HusMove.getMove(best, rootState.getTurnPlayer());
+        }
+    }
 
-        public synchronized HusMove getMove() {
-            return rootNode.getBestMove();
+    // Tree parallel MCTS: N SearchThreads grow one shared tree. Each node's
+    // visits and fixed point wins are entries of separate atomic arrays,
+    // updated with atomic adds, and expansion is a compare-and-set, so the
+    // workers never lock; virtual losses keep them from all following the
+    // same path.
+    public static class TreeParallel {
+        private Tree tree;
+        private SearchThread[] threads;
+
+        public TreeParallel(HusBoardState s, int id, int n, Playout.Policy p, long seed) {
+            this(Tree.sizedForHeap(s, id, 0.25), n, p, seed);
+        }
+
+        // Go on growing an existing tree, such as one kept from the last move.
+        public TreeParallel(Tree t, int n, Playout.Policy p, long seed) {
+            tree = t;
+            threads = new SearchThread[Math.max(n, 1)];
+
+            SplittableRandom master = new SplittableRandom(seed);
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new SearchThread(tree, p, master.split());
+            }
+        }
+
+        public void setHorizon(Playout.Horizon h) {
+            for (int i = 0; i < threads.length; i++) {
+                threads[i].setHorizon(h);
+            }
+        }
+
+        public void start() {
+            for (int i = 0; i < threads.length; i++) {
+                threads[i].start();
+            }
+        }
+
+        public void interrupt() {
+            for (int i = 0; i < threads.length; i++) {
+                threads[i].interrupt();
+            }
+        }
+
+        // Stop the workers, wait for their current iterations to finish, and
+        // return the most visited move.
+        public HusMove getMove() throws InterruptedException {
+            interrupt();
+            for (int i = 0; i < threads.length; i++) {
+                threads[i].join();
+            }
+            tree.printRootStats();
+            return tree.getBestMove();
         }
     }
 }
@@ -0,0 +1,78 @@
+package student_player.mytools;
+
+import hus.HusBoardState;
+import hus.HusMove;
+
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+// Quick correctness checks of the MonteCarlo search, on hand-built positions
+// where the right answer is known. Unlike Perft they take no time to run.
+//
+// From the root directory of the project, after compiling into ``bin``:
+//
+//     java -cp bin student_player.mytools.MonteCarloCheck
+//
+// Reports each check, and exits with status 1 if any of them fails.
+public class MonteCarloCheck {
+
+    // The initial board, but with Player 1 to move on the last turn before
+    // MAX_TURN runs out, so that every move draws the game.
+    static HusBoardState drawingPosition() {
+        ByteBuffer buf = ByteBuffer.allocate(HusBoardState.ENCODED_LENGTH);
+        new HusBoardState().writeTo(buf);
+        buf.put(2 * HusBoardState.PITS_PER_PLAYER, (byte) 1);
+        buf.putShort(2 * HusBoardState.PITS_PER_PLAYER + 2, (short) HusBoardState.MAX_TURN);
+
+        HusBoardState s = new HusBoardState();
+        buf.flip();
+        s.readFrom(buf);
+        return s;
+    }
+
+    // A playout that ends in a draw and a drawn terminal node of the tree
+    // must back up the same value: half a win.
+    static boolean checkDrawScores() {
+        HusBoardState s = drawingPosition();
+        int id = s.getTurnPlayer();
+
+        for (int legal = s.getLegalPitMask(); legal != 0; legal &= legal - 1) {
+            HusBoardState child = (HusBoardState) s.clone();
+            child.move(HusMove.getMove(Integer.numberOfTrailingZeros(legal), id));
+            if (child.getWinner() != HusBoardState.DRAW) {
+                System.out.println("Draw scores: position does not draw on every move.");
+                return false;
+            }
+        }
+
+        double playout = new Playout(new Playout.Uniform(), new SplittableRandom(1), id).run((HusBoardState) s.clone());
+
+        // The first iteration expands the root and plays out from its first
+        // child; the second reaches the second child, already finished, as a
+        // terminal node.
+        MonteCarlo.Tree tree = new MonteCarlo.Tree(s, id, 1000);
+        MonteCarlo.SearchThread t = new MonteCarlo.SearchThread(tree, new Playout.Uniform(), new SplittableRandom(1));
+        t.simulate();
+        t.simulate();
+
+        int first = tree.firstChild.get(MonteCarlo.Tree.ROOT);
+        long rollout = tree.wins.get(first);
+        long terminal = tree.wins.get(first + 1);
+        boolean terminalMarked = (tree.flags[first + 1] & MonteCarlo.Tree.TERMINAL) != 0;
+
+        boolean ok = playout == 0.5 && rollout == MonteCarlo.Tree.ONE / 2
+            && terminal == rollout && terminalMarked && !tree.isProven(first + 1);
+        System.out.println("Draw scores: playout " + playout + ", rollout " + (double) rollout / MonteCarlo.Tree.ONE
+                + ", terminal " + (double) terminal / MonteCarlo.Tree.ONE + (ok ? " ok" : " FAILED"));
+        return ok;
+    }
+
+    public static void main(String[] args) {
+        boolean ok = checkDrawScores();
+
+        System.out.println(ok ? "All checks passed." : "Some checks FAILED.");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package student_player.mytools;
+
+import boardgame.Client;
+import boardgame.Move;
+
+import hus.HusMove;
+
+// Checks of the shared HusMove instances on the path a chosen move takes
+// through boardgame.Client before it is sent to the server.
+//
+// From the root directory of the project, after compiling into ``bin``:
+//
+//     java -cp bin student_player.mytools.MoveCheck
+//
+// Reports each check, and exits with status 1 if any of them fails.
+public class MoveCheck {
+
+    static boolean report(String name, boolean ok) {
+        System.out.println(name + (ok ? " ok" : " FAILED"));
+        return ok;
+    }
+
+    // A player may return a shared move taken from the other side's point
+    // of view. The client must send the same pit for its own player, and
+    // the shared move must stay as it was.
+    static boolean checkOtherSidesMove() {
+        boolean ok = true;
+
+        for (int pit = 0; pit < 32; pit++) {
+            HusMove theirs = HusMove.getMove(pit, 1);
+            Move sent = Client.outgoingMove(theirs, 0);
+
+            ok &= sent == HusMove.getMove(pit, 0);
+            ok &= theirs.getPlayerID() == 1 && theirs.getPit() == pit;
+        }
+
+        Move nothing = Client.outgoingMove(HusMove.getNothingMove(1), 0);
+        ok &= nothing == HusMove.getNothingMove(0);
+        ok &= HusMove.getNothingMove(1).getPlayerID() == 1;
+
+        return report("Other side's shared move", ok);
+    }
+
+    // Moves the player built itself are still just given the player.
+    static boolean checkOwnMove() {
+        HusMove mine = new HusMove(7);
+        Move sent = Client.outgoingMove(mine, 1);
+
+        return report("Player's own move", sent == mine && mine.getPlayerID() == 1
+                && sent.toTransportable().equals("PIT 1 7"));
+    }
+
+    // Changing a shared move directly is still refused.
+    static boolean checkSharedMovesRefuseChange() {
+        boolean refused = false;
+        try {
+            HusMove.getMove(3, 1).setPlayerID(0);
+        } catch (UnsupportedOperationException e) {
+            refused = true;
+        }
+
+        return report("Shared move refuses setPlayerID", refused && HusMove.getMove(3, 1).getPlayerID() == 1);
+    }
+
+    public static void main(String[] args) {
+        boolean ok = checkOtherSidesMove();
+        ok &= checkOwnMove();
+        ok &= checkSharedMovesRefuseChange();
+
+        System.out.println(ok ? "All checks passed." : "Some checks FAILED.");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+}
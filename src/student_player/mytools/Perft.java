@@ -0,0 +1,254 @@
+package student_player.mytools;
+
+import hus.HusBoardState;
+import hus.HusMove;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Perft ("performance test") for the Hus rules engine: counts the leaf nodes
+// of the full game tree to a fixed depth. Used both as a benchmark of raw
+// move generation speed and as a correctness oracle, since any change to
+// runMove, canCapture or capture that alters the rules changes the counts.
+//
+// From the root directory of the project, after compiling into ``bin``:
+//
+//     java -cp bin student_player.mytools.Perft [depth] [threads] [cache] [check]
+//
+// Runs every stored position up to ``depth`` (default 5) on ``threads``
+// threads (default 1), and reports nodes/second and whether each count matches
+// the reference. Passing ``cache`` shares a transposition cache of subtree
+// counts between the threads. Passing ``check`` also runs the slow
+// clone-and-move path on every position, compares it against the make/unmake
+// path, and turns on undo validation.
+public class Perft {
+
+    // Positions to test, as the pits played from the initial position.
+    static final int[][] POSITIONS = {
+        {},
+        {21, 3, 3, 16, 7, 2},
+        {13, 5, 11, 15, 16, 4, 12, 2, 4, 0, 10, 17, 23, 3, 30},
+        {17, 9, 8, 6, 14, 7, 0, 3, 15, 21, 25, 4, 11, 25, 23, 29, 18, 24, 30, 7,
+         3, 3, 24, 28, 14, 22, 8, 4, 22, 30},
+        {18, 12, 16, 16, 7, 5, 11, 9, 13, 23, 17, 19, 3, 4, 1, 27, 21, 31, 6, 0,
+         20, 23, 0, 17, 23, 25, 25, 5, 1, 7, 7, 29, 8, 15, 28, 24, 11, 23, 9, 22,
+         3, 13, 12, 27, 13, 10, 22, 3, 18, 28, 4, 16, 21, 5, 30, 29, 29, 30, 9, 6},
+    };
+
+    // Reference counts for depths 1 to 5 of each position, recorded with the
+    // original int[][] implementation of HusBoardState.
+    static final long[][] REFERENCE = {
+        {24L, 576L, 11040L, 207443L, 3439088L},
+        {13L, 149L, 1992L, 21591L, 289455L},
+        {9L, 149L, 1369L, 21299L, 202728L},
+        {21L, 151L, 2856L, 20244L, 352982L},
+        {14L, 78L, 1170L, 6162L, 96822L},
+    };
+
+    // Build the state reached by playing the given pits from the initial position.
+    public static HusBoardState getPosition(int[] pits) {
+        HusBoardState s = new HusBoardState();
+        for (int i = 0; i < pits.length; i++) {
+            s.move(HusMove.getMove(pits[i], s.getTurnPlayer()));
+        }
+        return s;
+    }
+
+    // Reference perft through the public clone/getLegalMoves/move API only.
+    // Slow, but independent of make/unmake, the pit masks and the cache.
+    public static long slowPerft(HusBoardState s, int depth) {
+        if (depth == 0 || s.gameOver()) {
+            return 1;
+        }
+
+        long nodes = 0;
+        ArrayList<HusMove> moves = s.getLegalMoves();
+        for (int i = 0; i < moves.size(); i++) {
+            HusBoardState child = (HusBoardState) s.clone();
+            child.move(moves.get(i));
+            nodes += slowPerft(child, depth - 1);
+        }
+        return nodes;
+    }
+
+    // Fast perft on a single mutable state. Each instance owns its undo
+    // records, so use one per thread; the cache may be shared or null.
+    public static class Counter {
+        private HusBoardState.Undo[] undos;
+        private Cache cache;
+
+        public Counter(int maxDepth, Cache c) {
+            undos = new HusBoardState.Undo[maxDepth + 1];
+            for (int i = 0; i < undos.length; i++) {
+                undos[i] = new HusBoardState.Undo();
+            }
+            cache = c;
+        }
+
+        // Count the leaves below s at the given depth. s is restored on return.
+        public long perft(HusBoardState s, int depth) {
+            if (depth == 0 || s.gameOver()) {
+                return 1;
+            }
+
+            // Leaves just below a node are simply its legal moves.
+            if (depth == 1) {
+                return s.getNumLegalMoves();
+            }
+
+            long key = 0;
+            if (cache != null) {
+                key = Cache.key(s, depth);
+                long cached = cache.get(key);
+                if (cached >= 0) {
+                    return cached;
+                }
+            }
+
+            long nodes = 0;
+            HusBoardState.Undo undo = undos[depth];
+            for (int legal = s.getLegalPitMask(); legal != 0; legal &= legal - 1) {
+                s.make(Integer.numberOfTrailingZeros(legal), undo);
+                nodes += perft(s, depth - 1);
+                s.unmake(undo);
+            }
+
+            if (cache != null) {
+                cache.put(key, nodes);
+            }
+            return nodes;
+        }
+    }
+
+    // Lock-free hash table of subtree counts. Each entry is two longs, the
+    // key XORed with the count and the count itself, so that an entry torn by
+    // a concurrent write fails the key check instead of returning garbage.
+    public static class Cache {
+        private final long[] table;
+        private final int mask;
+
+        // Size must be a power of two.
+        public Cache(int entries) {
+            table = new long[2 * entries];
+            mask = entries - 1;
+        }
+
+        // Perft counts also depend on the depth, whether captures are allowed
+        // yet (turn 0), and whether the game is over, none of which are in the
+        // Zobrist key, so mix them in.
+        static long key(HusBoardState s, int depth) {
+            long extra = (long) s.getTurnNumber() << 8 | depth << 1 | (s.gameOver() ? 1 : 0);
+            return s.getHashKey() ^ (extra * 0x9E3779B97F4A7C15L);
+        }
+
+        // Return the cached count for the key, or -1 if there is none.
+        long get(long key) {
+            int i = 2 * ((int) key & mask);
+            long count = table[i + 1];
+            return (table[i] ^ count) == key ? count : -1;
+        }
+
+        void put(long key, long count) {
+            int i = 2 * ((int) key & mask);
+            table[i] = key ^ count;
+            table[i + 1] = count;
+        }
+    }
+
+    // Perft of s, splitting the root moves across the given number of threads,
+    // each with its own copy of the state, all sharing one cache.
+    public static long parallelPerft(final HusBoardState s, final int depth, int threads, final Cache cache)
+            throws Exception {
+        if (depth <= 1 || s.gameOver()) {
+            return new Counter(depth, cache).perft(s, depth);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Long>> results = new ArrayList<Future<Long>>();
+
+        try {
+            for (int legal = s.getLegalPitMask(); legal != 0; legal &= legal - 1) {
+                final int pit = Integer.numberOfTrailingZeros(legal);
+                results.add(pool.submit(new Callable<Long>() {
+                    public Long call() {
+                        HusBoardState child = (HusBoardState) s.clone();
+                        child.move(HusMove.getMove(pit, child.getTurnPlayer()));
+                        return new Counter(depth, cache).perft(child, depth - 1);
+                    }
+                }));
+            }
+
+            long nodes = 0;
+            for (int i = 0; i < results.size(); i++) {
+                nodes += results.get(i).get();
+            }
+            return nodes;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxDepth = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        boolean useCache = false;
+        boolean check = false;
+        for (int i = 2; i < args.length; i++) {
+            useCache |= args[i].equals("cache");
+            check |= args[i].equals("check");
+        }
+
+        if (check) {
+            HusBoardState.setUndoValidation(true);
+        }
+
+        boolean allPassed = true;
+        long totalNodes = 0;
+        long totalTime = 0;
+
+        for (int p = 0; p < POSITIONS.length; p++) {
+            HusBoardState s = getPosition(POSITIONS[p]);
+            System.out.println("Position " + p + " (" + POSITIONS[p].length + " moves in):");
+
+            for (int depth = 1; depth <= maxDepth; depth++) {
+                // A fresh cache for every run, so that shallower runs do not
+                // hand their counts to deeper ones.
+                Cache cache = useCache ? new Cache(1 << 20) : null;
+
+                long start = System.nanoTime();
+                long nodes = parallelPerft(s, depth, threads, cache);
+                long time = System.nanoTime() - start;
+
+                totalNodes += nodes;
+                totalTime += time;
+
+                String status = "";
+                if (depth <= REFERENCE[p].length) {
+                    boolean ok = nodes == REFERENCE[p][depth - 1];
+                    allPassed &= ok;
+                    status = ok ? " OK" : " MISMATCH (expected " + REFERENCE[p][depth - 1] + ")";
+                }
+
+                if (check) {
+                    long slow = slowPerft(s, depth);
+                    allPassed &= slow == nodes;
+                    status += slow == nodes ? " slow OK" : " slow MISMATCH (" + slow + ")";
+                }
+
+                System.out.println(String.format("  depth %d: %d nodes in %.3f s (%.0f nodes/s)%s",
+                        depth, nodes, time / 1e9, nodes / Math.max(time / 1e9, 1e-9), status));
+            }
+        }
+
+        System.out.println(String.format("Total: %d nodes in %.3f s (%.0f nodes/s)",
+                totalNodes, totalTime / 1e9, totalNodes / Math.max(totalTime / 1e9, 1e-9)));
+        System.out.println(allPassed ? "All counts match." : "SOME COUNTS DO NOT MATCH.");
+
+        if (!allPassed) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package student_player.mytools;
+
+import hus.HusBoardState;
+import hus.HusMove;
+
+import java.util.SplittableRandom;
+
+// Light playouts for MonteCarlo: play a board out to the end of the game in
+// place, with a pluggable policy choosing each move. Nothing is allocated per
+// move or per playout, and the loop is iterative, so even games of MAX_TURN
+// turns cannot overflow the stack.
+//
+// Given a Horizon, a playout instead stops after a fixed number of moves and
+// scores the position it reached, which makes playouts many times cheaper.
+//
+// Each thread needs its own Playout, since the random generator and the
+// scratch undo record are not shared. The policies themselves hold no
+// mutable state and can be shared.
+public class Playout {
+
+    // Chooses the move to play in a playout.
+    public interface Policy {
+        // Pit for the player to move in s, which is not over. May try moves
+        // with make/unmake on scratch, but must leave s as it was.
+        int choose(HusBoardState s, SplittableRandom rng, HusBoardState.Undo scratch);
+    }
+
+    // Where to cut a playout short, and how to score it there.
+    public static class Horizon {
+        final int plies;
+        final Functions.EvaluationFunction evalFunc; // Must score for myID.
+        final double scale;
+        final int margin;
+
+        // Stop after k moves and squash the evaluation by f into a win
+        // probability: a lead of scale is worth about 73%. If margin > 0, also
+        // stop as soon as the evaluation is at least margin either way and
+        // call it a whole win or loss.
+        public Horizon(int k, Functions.EvaluationFunction f, double scale, int margin) {
+            plies = k;
+            evalFunc = f;
+            this.scale = scale;
+            this.margin = margin > 0 ? margin : Integer.MAX_VALUE;
+        }
+
+        double squash(int eval) {
+            return 1 / (1 + Math.exp(-eval / scale));
+        }
+    }
+
+    private final Policy policy;
+    private final SplittableRandom rng;
+    private final HusBoardState.Undo scratch = new HusBoardState.Undo();
+    private final int myID;
+    private Horizon horizon = null; // Play to the end of the game if null.
+
+    public Playout(Policy p, SplittableRandom r, int id) {
+        policy = p;
+        rng = r;
+        myID = id;
+    }
+
+    public void setHorizon(Horizon h) {
+        horizon = h;
+    }
+
+    // Play s out in place, to the end of the game or to the horizon. Returns
+    // the chance that myID wins: the score of a finished game, or in between
+    // for one scored at the horizon.
+    public double run(HusBoardState s) {
+        for (int ply = 0; !s.gameOver(); ply++) {
+            if (horizon != null) {
+                int eval = horizon.evalFunc.compute(s);
+                if (eval >= horizon.margin || -eval >= horizon.margin) {
+                    return eval > 0 ? 1 : 0;
+                }
+                if (ply >= horizon.plies) {
+                    return horizon.squash(eval);
+                }
+            }
+            s.move(HusMove.encode(policy.choose(s, rng, scratch), s.getTurnPlayer()));
+        }
+        return score(s, myID);
+    }
+
+    // Value of the finished game s for id: 1 for a win, 0.5 for a draw and 0
+    // otherwise, a cancelled game included. The tree scores its terminal
+    // nodes with this too, so that rollouts and terminals agree.
+    static double score(HusBoardState s, int id) {
+        int winner = s.getWinner();
+        return winner == id ? 1 : winner == HusBoardState.DRAW ? 0.5 : 0;
+    }
+
+    // A uniformly random pit from a mask of legal pits.
+    static int randomPit(int legal, SplittableRandom rng) {
+        for (int k = rng.nextInt(Integer.bitCount(legal)); k > 0; k--) {
+            legal &= legal - 1;
+        }
+        return Integer.numberOfTrailingZeros(legal);
+    }
+
+    // Every legal move equally likely.
+    public static class Uniform implements Policy {
+        public int choose(HusBoardState s, SplittableRandom rng, HusBoardState.Undo scratch) {
+            return randomPit(s.getLegalPitMask(), rng);
+        }
+    }
+
+    // The move whose resulting state the evaluation function likes best for
+    // the player to move, or a random one with probability epsilon. With an
+    // epsilon of 0 this is the original heavy rollout.
+    public static class EpsilonGreedy implements Policy {
+        Functions.EvaluationFunction evalFunc;
+        int id; // Player the evaluation function scores for.
+        double epsilon;
+
+        public EpsilonGreedy(Functions.EvaluationFunction f, int i, double e) {
+            evalFunc = f;
+            id = i;
+            epsilon = e;
+        }
+
+        public int choose(HusBoardState s, SplittableRandom rng, HusBoardState.Undo scratch) {
+            int legal = s.getLegalPitMask();
+
+            if (epsilon > 0 && rng.nextDouble() < epsilon) {
+                return randomPit(legal, rng);
+            }
+
+            int sign = s.getTurnPlayer() == id ? 1 : -1;
+            int bestPit = -1;
+            int bestScore = Integer.MIN_VALUE;
+
+            for (; legal != 0; legal &= legal - 1) {
+                int pit = Integer.numberOfTrailingZeros(legal);
+                s.make(pit, scratch);
+                int score = sign * evalFunc.compute(s);
+                s.unmake(scratch);
+
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestPit = pit;
+                }
+            }
+            return bestPit;
+        }
+    }
+
+    // The move that captures the most seeds on its first sowing, or a random
+    // move if none captures. Much cheaper than EpsilonGreedy, since no move
+    // is played to choose one.
+    public static class CaptureFirst implements Policy {
+        public int choose(HusBoardState s, SplittableRandom rng, HusBoardState.Undo scratch) {
+            int legal = s.getLegalPitMask();
+            int bestPit = -1;
+            int bestGain = 0;
+
+            for (int m = legal; m != 0; m &= m - 1) {
+                int pit = Integer.numberOfTrailingZeros(m);
+                int gain = s.getCaptureGain(pit);
+                if (gain > bestGain) {
+                    bestGain = gain;
+                    bestPit = pit;
+                }
+            }
+            return bestPit >= 0 ? bestPit : randomPit(legal, rng);
+        }
+    }
+
+    // Policy factory, by name, for quickly testing different policies.
+    public static Policy getPolicy(String s, Functions.EvaluationFunction f, int id, double epsilon) {
+        switch (s) {
+            case "uniform":
+                return new Uniform();
+            case "greedy":
+                return new EpsilonGreedy(f, id, epsilon);
+            case "capture":
+                return new CaptureFirst();
+            default:
+                return new Uniform();
+        }
+    }
+}
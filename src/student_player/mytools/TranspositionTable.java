@@ -0,0 +1,122 @@
+package student_player.mytools;
+
+import hus.HusBoardState;
+
+// Fixed-size transposition table for the alpha-beta searches, keyed on
+// HusBoardState.getHashKey().
+//
+// Entries are two longs in one flat array: the key XORed with the data, then
+// the data itself. Probes and stores are plain array reads and writes with no
+// locking. If two threads write the same slot at once, the key check on the
+// next probe fails and the entry is treated as a miss instead of returning
+// another position's data.
+public class TranspositionTable {
+    // Bound types.
+    public static final int EXACT = 0;
+    public static final int LOWER = 1; // Score is a lower bound (failed high).
+    public static final int UPPER = 2; // Score is an upper bound (failed low).
+
+    // Returned by probe when there is no entry for the key.
+    public static final long MISS = 0;
+
+    // Layout of the data word:
+    //   bits 0-31   score
+    //   bits 32-39  depth
+    //   bits 40-41  bound
+    //   bits 42-47  best move pit + 1, 0 for none
+    //   bits 48-55  age of the search that stored it
+    //   bit  63     always set, so that stored data is never MISS
+    private static final long VALID = 1L << 63;
+
+    private final long[] table;
+    private final int mask;
+    private int age = 0;
+
+    // The number of entries must be a power of two.
+    public TranspositionTable(int entries) {
+        if (Integer.bitCount(entries) != 1) {
+            throw new IllegalArgumentException("Table size must be a power of two: " + entries);
+        }
+        table = new long[2 * entries];
+        mask = entries - 1;
+    }
+
+    // Largest table that fits in the given fraction of the maximum heap.
+    // Clients are run with -Xmx520m, so a quarter gives 8M entries (128 MB).
+    public static TranspositionTable sizedForHeap(double fraction) {
+        long bytes = (long) (Runtime.getRuntime().maxMemory() * fraction);
+        long entries = Long.highestOneBit(Math.max(bytes / 16, 1024));
+        return new TranspositionTable((int) Math.min(entries, 1 << 26));
+    }
+
+    // Call once per move chosen. Entries from earlier searches are then
+    // replaced even by shallower ones, so the table does not fill up with
+    // deep results for positions that can no longer occur.
+    public void newSearch() {
+        age = (age + 1) & 0xFF;
+    }
+
+    // Return the data stored for the key, or MISS.
+    public long probe(long key) {
+        int i = 2 * ((int) key & mask);
+        long data = table[i + 1];
+        return (table[i] ^ data) == key ? data : MISS;
+    }
+
+    // Store a search result, preferring deeper results: an entry for a
+    // different position from the current search is only replaced by one
+    // searched at least as deep. bestPit is -1 if there is no best move.
+    public void store(long key, int depth, int bound, int score, int bestPit) {
+        int i = 2 * ((int) key & mask);
+        long old = table[i + 1];
+
+        if (old != MISS && (table[i] ^ old) != key && ageOf(old) == age && depthOf(old) > depth) {
+            return;
+        }
+
+        // Keep the old best move if this result did not produce one.
+        if (bestPit < 0 && old != MISS && (table[i] ^ old) == key) {
+            bestPit = pitOf(old);
+        }
+
+        long data = VALID
+            | (long) age << 48
+            | (long) (bestPit + 1) << 42
+            | (long) bound << 40
+            | (long) depth << 32
+            | (score & 0xFFFFFFFFL);
+
+        table[i] = key ^ data;
+        table[i + 1] = data;
+    }
+
+    public static int scoreOf(long data) {
+        return (int) data;
+    }
+
+    public static int depthOf(long data) {
+        return (int) (data >>> 32) & 0xFF;
+    }
+
+    public static int boundOf(long data) {
+        return (int) (data >>> 40) & 0x3;
+    }
+
+    // Best move pit, or -1 if none was stored.
+    public static int pitOf(long data) {
+        return ((int) (data >>> 42) & 0x3F) - 1;
+    }
+
+    static int ageOf(long data) {
+        return (int) (data >>> 48) & 0xFF;
+    }
+
+    public int size() {
+        return mask + 1;
+    }
+
+    // Convenience for the common case of probing a board state.
+    public long probe(HusBoardState s) {
+        return probe(s.getHashKey());
+    }
+}